@@ -0,0 +1,39 @@
+package dict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints the size of the dictionary files per entry, for every registered implementation and dictionary size.
+ * File sizes are deterministic, so this needs no benchmark harness.
+ * <pre>java dict.FileSizeReport [size...]</pre>
+ *
+ * @author talm
+ *
+ */
+public class FileSizeReport {
+	public static void main(String[] args) throws IOException {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (String arg : args) {
+			sizes.add(Integer.parseInt(arg));
+		}
+		if (sizes.isEmpty()) {
+			sizes.add(10000);
+			sizes.add(100000);
+			sizes.add(1000000);
+		}
+		System.out.printf("%-40s %10s %15s %12s%n", "implementation", "entries", "bytes", "bytes/entry");
+		for (String implementation : Implementations.names()) {
+			for (int size : sizes) {
+				Fixture fixture = Fixture.create(implementation, size);
+				try {
+					long bytes = fixture.fileBytes();
+					System.out.printf("%-40s %10d %15d %12.1f%n", implementation, size, bytes, (double) bytes / size);
+				} finally {
+					fixture.close();
+				}
+			}
+		}
+	}
+}
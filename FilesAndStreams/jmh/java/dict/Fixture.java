@@ -0,0 +1,88 @@
+package dict;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+/**
+ * A dictionary file with a given number of entries (see {@link Workloads}), written by a given implementation
+ * in a temporary directory of its own, which is deleted when the fixture is closed.
+ *
+ * @author talm
+ *
+ */
+final class Fixture implements Closeable {
+	private static final int BATCH = 100000;
+
+	final String implementation;
+	final int size;
+	final File directory;
+	final File file;
+
+	private Fixture(String implementation, int size) throws IOException {
+		this.implementation = implementation;
+		this.size = size;
+		directory = Files.createTempDirectory("dict-bench").toFile();
+		file = new File(directory, "dict");
+	}
+
+	/**
+	 * Write a dictionary file with entries 0..size-1.
+	 * Files of read-only implementations are written by an {@link InMemoryDictionary}.
+	 */
+	static Fixture create(String implementation, int size) throws IOException {
+		Fixture fixture = new Fixture(implementation, size);
+		PersistentDictionary dict = Implementations.mutable(implementation)
+				? fixture.newDictionary() : new InMemoryDictionary(fixture.file);
+		dict.open();
+		TreeMap<String, String> batch = new TreeMap<String, String>();
+		for (int i = 0; i < size; ++i) {
+			batch.put(Workloads.key(i), Workloads.value(i));
+			if (batch.size() == BATCH || i == size - 1) {
+				dict.putAll(batch);
+				batch.clear();
+			}
+		}
+		dict.close();
+		return fixture;
+	}
+
+	PersistentDictionary newDictionary() {
+		return Implementations.create(implementation, file);
+	}
+
+	PersistentDictionary open() throws IOException {
+		PersistentDictionary dict = newDictionary();
+		dict.open();
+		return dict;
+	}
+
+	/**
+	 * @return the size of the dictionary's files (the file and any side files, but not the previous generation)
+	 */
+	long fileBytes() {
+		long bytes = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (!f.getName().endsWith(".prev")) {
+					bytes += f.length();
+				}
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,80 @@
+package dict;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The {@link PersistentDictionary} implementations the benchmarks can run, by name.
+ * The benchmarks take the name as their <i>implementation</i> parameter, so an alternative implementation
+ * plugs into every benchmark by registering a factory here (or with {@link #register(String, Function, boolean)}
+ * from a static initializer) and passing its name with <pre>-p implementation=Name</pre>.
+ *
+ * The benchmarks are compiled together with the dictionary sources (they are in the same package) by javac with
+ * jmh-core and its annotation processor, jmh-generator-annprocess, on the class path; the processor generates the
+ * harness classes and the benchmark list. From the FilesAndStreams directory, with the JMH 1.37 jars
+ * (jmh-core, jmh-generator-annprocess and their dependencies jopt-simple 5.0.4 and commons-math3 3.6.1) in lib:
+ * <pre>
+ * javac -cp "lib/*" -d build/jmh $(find main/java/dict jmh/java -name '*.java')
+ * java -cp "build/jmh:lib/*" org.openjdk.jmh.Main OpenCloseBenchmark -p implementation=TrieDictionary -p size=100000
+ * java -cp "build/jmh:lib/*" dict.FileSizeReport 10000 100000
+ * </pre>
+ * Without <pre>-p</pre>, a benchmark runs every combination of its parameters; <pre>-h</pre> lists the other options.
+ *
+ * @author talm
+ *
+ */
+final class Implementations {
+	private static final Map<String, Function<File, PersistentDictionary>> FACTORIES = new LinkedHashMap<String, Function<File, PersistentDictionary>>();
+	private static final Map<String, Boolean> MUTABLE = new LinkedHashMap<String, Boolean>();
+
+	static {
+		register("InMemoryDictionary", InMemoryDictionary::new, true);
+		register("InMemoryDictionary.BINARY_FRONT_CODED", file -> new InMemoryDictionary(file, DictionaryFormat.BINARY_FRONT_CODED), true);
+		register("InMemoryDictionary.BINARY_COMPRESSED", file -> new InMemoryDictionary(file, DictionaryFormat.BINARY_COMPRESSED), true);
+		register("LazyInMemoryDictionary", LazyInMemoryDictionary::new, true);
+		register("ConcurrentDictionary", ConcurrentDictionary::new, true);
+		register("LogStructuredDictionary", LogStructuredDictionary::new, true);
+		register("MappedDictionary", MappedDictionary::new, true);
+		register("MappedDictionary.bloom", file -> new MappedDictionary(file, 0.01), true);
+		register("OffHeapDictionary", OffHeapDictionary::new, true);
+		register("ShardedDictionary", file -> new ShardedDictionary(file, Runtime.getRuntime().availableProcessors()), true);
+		register("CachingDictionary", file -> new CachingDictionary(new MappedDictionary(file), 1 << 16), true);
+		register("TrieDictionary", TrieDictionary::new, true);
+		register("FrozenDictionary", FrozenDictionary::new, false);
+	}
+
+	private Implementations() {
+	}
+
+	/**
+	 * @param name the name the benchmarks know the implementation by
+	 * @param factory creates a dictionary over a file
+	 * @param mutable false if the dictionary can not be changed; its file is then written by an
+	 * {@link InMemoryDictionary}, and only the read benchmarks apply to it
+	 */
+	static synchronized void register(String name, Function<File, PersistentDictionary> factory, boolean mutable) {
+		FACTORIES.put(name, factory);
+		MUTABLE.put(name, mutable);
+	}
+
+	static synchronized PersistentDictionary create(String name, File file) {
+		Function<File, PersistentDictionary> factory = FACTORIES.get(name);
+		if (factory == null) {
+			throw new IllegalArgumentException("Unknown dictionary implementation " + name + "; known: " + FACTORIES.keySet());
+		}
+		return factory.apply(file);
+	}
+
+	static synchronized boolean mutable(String name) {
+		Boolean mutable = MUTABLE.get(name);
+		return mutable == null || mutable;
+	}
+
+	static synchronized List<String> names() {
+		return new ArrayList<String>(FACTORIES.keySet());
+	}
+}
@@ -0,0 +1,94 @@
+package dict;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PersistentDictionary#get(Object)} of keys that are in the dictionary, drawn uniformly or with
+ * a Zipf-like skew (see {@link Workloads#skewed(int, int, long)}), and of keys that are not.
+ * The key strings are created before the measurement, so only the lookup is timed.
+ *
+ * @author talm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LookupBenchmark {
+	private static final int KEYS = 1 << 16;
+
+	// the binary formats of InMemoryDictionary only change how its file is read and written (see OpenCloseBenchmark)
+	@Param({ "InMemoryDictionary", "LazyInMemoryDictionary", "ConcurrentDictionary", "LogStructuredDictionary",
+			"MappedDictionary", "MappedDictionary.bloom", "OffHeapDictionary", "ShardedDictionary", "CachingDictionary",
+			"TrieDictionary", "FrozenDictionary" })
+	String implementation;
+
+	@Param({ "10000", "100000", "1000000", "10000000" })
+	int size;
+
+	@Param({ "uniform", "skewed" })
+	String distribution;
+
+	Fixture fixture;
+	PersistentDictionary dict;
+	String[] keys;
+	String[] missing;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException {
+		fixture = Fixture.create(implementation, size);
+		dict = fixture.open();
+		int[] indices = Workloads.indices(distribution, size, KEYS, 42);
+		keys = new String[KEYS];
+		missing = new String[KEYS];
+		for (int i = 0; i < KEYS; ++i) {
+			keys[i] = Workloads.key(indices[i]);
+			missing[i] = Workloads.missingKey(indices[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		dict.close();
+		fixture.close();
+	}
+
+	/**
+	 * Each thread walks the key arrays from its own position.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+
+		int next() {
+			return next++ & (KEYS - 1);
+		}
+	}
+
+	@Benchmark
+	public String get(Cursor cursor) {
+		return dict.get(keys[cursor.next()]);
+	}
+
+	@Benchmark
+	public String getMissing(Cursor cursor) {
+		return dict.get(missing[cursor.next()]);
+	}
+}
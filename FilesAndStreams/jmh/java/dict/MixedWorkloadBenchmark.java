@@ -0,0 +1,81 @@
+package dict;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a mix of lookups and updates of existing entries, with skewed keys, on a single thread.
+ * Each operation is a {@link PersistentDictionary#get(Object)} with probability readPercent/100,
+ * and a {@link PersistentDictionary#put(String, String)} otherwise; the sequence of operations is fixed.
+ * Only implementations that can be changed apply.
+ *
+ * @author talm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MixedWorkloadBenchmark {
+	private static final int OPERATIONS = 1 << 16;
+
+	// FrozenDictionary can not be changed; the binary formats of InMemoryDictionary only change its file, and the
+	// Bloom filter of MappedDictionary only speeds up lookups of missing keys, which this workload does not make
+	@Param({ "InMemoryDictionary", "LazyInMemoryDictionary", "ConcurrentDictionary", "LogStructuredDictionary",
+			"MappedDictionary", "OffHeapDictionary", "ShardedDictionary", "CachingDictionary", "TrieDictionary" })
+	String implementation;
+
+	@Param({ "10000", "100000", "1000000", "10000000" })
+	int size;
+
+	@Param({ "95", "50" })
+	int readPercent;
+
+	Fixture fixture;
+	PersistentDictionary dict;
+	String[] keys;
+	String[] values; // null for a lookup
+	int next;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException {
+		fixture = Fixture.create(implementation, size);
+		dict = fixture.open();
+		int[] indices = Workloads.skewed(size, OPERATIONS, 42);
+		int[] dice = Workloads.uniform(100, OPERATIONS, 43);
+		keys = new String[OPERATIONS];
+		values = new String[OPERATIONS];
+		for (int i = 0; i < OPERATIONS; ++i) {
+			keys[i] = Workloads.key(indices[i]);
+			values[i] = dice[i] < readPercent ? null : Workloads.value(indices[i] + i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		dict.close();
+		fixture.close();
+	}
+
+	@Benchmark
+	public String operation() {
+		int i = next++ & (OPERATIONS - 1);
+		return values[i] == null ? dict.get(keys[i]) : dict.put(keys[i], values[i]);
+	}
+}
@@ -0,0 +1,104 @@
+package dict;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PersistentDictionary#open()} of an existing file, and {@link PersistentDictionary#close()}
+ * after one entry was changed (which has to write the file again).
+ * Each call is timed on its own, since a single call takes milliseconds to seconds.
+ *
+ * @author talm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class OpenCloseBenchmark {
+	@Param({ "InMemoryDictionary", "InMemoryDictionary.BINARY_FRONT_CODED", "InMemoryDictionary.BINARY_COMPRESSED",
+			"LazyInMemoryDictionary", "ConcurrentDictionary", "LogStructuredDictionary", "MappedDictionary",
+			"MappedDictionary.bloom", "OffHeapDictionary", "ShardedDictionary", "CachingDictionary", "TrieDictionary",
+			"FrozenDictionary" })
+	String implementation;
+
+	@Param({ "10000", "100000", "1000000", "10000000" })
+	int size;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		fixture = Fixture.create(implementation, size);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		fixture.close();
+	}
+
+	/**
+	 * A dictionary that is closed before each call.
+	 */
+	@State(Scope.Thread)
+	public static class Closed {
+		PersistentDictionary dict;
+
+		@Setup(Level.Invocation)
+		public void create(OpenCloseBenchmark benchmark) {
+			dict = benchmark.fixture.newDictionary();
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() throws IOException {
+			dict.close();
+		}
+	}
+
+	/**
+	 * A dictionary that is open, with one changed entry, before each call.
+	 */
+	@State(Scope.Thread)
+	public static class Changed {
+		PersistentDictionary dict;
+		int next;
+
+		@Setup(Level.Invocation)
+		public void open(OpenCloseBenchmark benchmark) throws IOException {
+			dict = benchmark.fixture.open();
+			if (Implementations.mutable(benchmark.implementation)) {
+				int i = next++ % benchmark.size;
+				dict.put(Workloads.key(i), Workloads.value(i + 1));
+			}
+		}
+	}
+
+	@Benchmark
+	public int open(Closed closed) throws IOException {
+		closed.dict.open();
+		//the first access finishes any work that open() deferred
+		closed.dict.get(Workloads.key(0));
+		return closed.dict.size();
+	}
+
+	@Benchmark
+	public void close(Changed changed) throws IOException {
+		changed.dict.close();
+	}
+}
@@ -0,0 +1,86 @@
+package dict;
+
+import java.util.Random;
+
+/**
+ * Deterministic dictionary contents and key access patterns for the benchmarks.
+ *
+ * Entry i has an English-looking key built from two-letter syllables (one per hexadecimal digit of i),
+ * so that, as in a real word list, most keys share long prefixes with their neighbours;
+ * its value is a definition of about 60 characters.
+ *
+ * @author talm
+ *
+ */
+final class Workloads {
+	private static final String[] SYLLABLES = { "ka", "re", "to", "mi", "su", "la", "ne", "po",
+			"di", "fa", "ho", "ju", "be", "ry", "ce", "wo" };
+	private static final String[] PHRASES = { "a word used to describe ", "the act of making ",
+			"relating to or denoting ", "a person who studies ", "the state of being " };
+	// a prime larger than any dictionary size, so multiplying by it modulo the size is a permutation
+	private static final long SCRAMBLE = 1000000007L;
+
+	private Workloads() {
+	}
+
+	static String key(int i) {
+		StringBuilder key = new StringBuilder(16);
+		int shift = 28;
+		while (shift > 0 && (i >>> shift) == 0) {
+			shift -= 4;
+		}
+		for (; shift >= 0; shift -= 4) {
+			key.append(SYLLABLES[(i >>> shift) & 0xf]);
+		}
+		return key.toString();
+	}
+
+	static String value(int i) {
+		return PHRASES[i % PHRASES.length] + key(i / 7) + " or something like " + key(i / 3) + " (" + i + ")";
+	}
+
+	/**
+	 * @return a key that is not in a dictionary of entries 0..size-1
+	 */
+	static String missingKey(int i) {
+		return key(i) + "x";
+	}
+
+	/**
+	 * Entry indices in [0, size), each equally likely.
+	 */
+	static int[] uniform(int size, int count, long seed) {
+		Random random = new Random(seed);
+		int[] indices = new int[count];
+		for (int i = 0; i < count; ++i) {
+			indices[i] = random.nextInt(size);
+		}
+		return indices;
+	}
+
+	/**
+	 * Entry indices in [0, size) with a Zipf-like skew: the entry of rank r is looked up with probability
+	 * proportional to about 1/r, as words in text are. Rank r is drawn as size<sup>u</sup> for a uniform u,
+	 * and ranks are spread over the entries by a fixed permutation, so the hot entries are not neighbours.
+	 */
+	static int[] skewed(int size, int count, long seed) {
+		Random random = new Random(seed);
+		int[] indices = new int[count];
+		for (int i = 0; i < count; ++i) {
+			long rank = Math.min(size - 1, (long) Math.pow(size, random.nextDouble()) - 1);
+			indices[i] = (int) (rank * SCRAMBLE % size);
+		}
+		return indices;
+	}
+
+	static int[] indices(String distribution, int size, int count, long seed) {
+		switch (distribution) {
+		case "uniform":
+			return uniform(size, count, seed);
+		case "skewed":
+			return skewed(size, count, seed);
+		default:
+			throw new IllegalArgumentException("Unknown key distribution " + distribution);
+		}
+	}
+}
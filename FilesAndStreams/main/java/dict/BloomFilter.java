@@ -0,0 +1,149 @@
+package dict;
+
+import java.io.*;
+
+/**
+ * A Bloom filter over dictionary keys: a set that can answer "definitely not there" without
+ * looking at the keys themselves, at the price of a configurable rate of false positives.
+ *
+ * Each key is hashed once to 64 bits; the two halves drive the double hashing
+ * <pre>bit(i) = h1 + i * h2 (mod numBits)</pre>
+ * for the filter's <i>numHashes</i> bits.
+ *
+ * A filter is saved next to the dictionary it describes, together with a stamp of that dictionary file
+ * (its length and the checksum in its trailer, see {@link DictionaryFiles#commit(File, File)}), so a filter that
+ * belongs to another version of the file is not used; a dictionary file without a trailer can not be matched,
+ * so no filter is used for it. The filter file is written and moved into place by
+ * {@link DictionaryFiles#commit(File, File)} too, so a torn write is never mistaken for a filter.
+ * The file format is:
+ * <pre>magic:int numHashes:int numBits:long stampLength:long stampChecksum:long words:long[]</pre>
+ * followed by the checksum trailer.
+ *
+ * @author talm
+ *
+ */
+final class BloomFilter {
+	private static final int MAGIC = 0x424C4D32; // "BLM2"
+
+	private final long[] words;
+	private final long numBits;
+	private final int numHashes;
+
+	private BloomFilter(long numBits, int numHashes) {
+		this.numBits = numBits;
+		this.numHashes = numHashes;
+		words = new long[(int) ((numBits + 63) >>> 6)];
+	}
+
+	/**
+	 * Create an empty filter sized for a number of keys.
+	 * @param expectedKeys the number of keys the filter will hold
+	 * @param falsePositiveRate the probability that {@link #mightContain(String)} is true for a key that was never added
+	 */
+	static BloomFilter create(long expectedKeys, double falsePositiveRate) {
+		long n = Math.max(expectedKeys, 64);
+		long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bits = Math.min(Math.max(bits, 64), (long) Integer.MAX_VALUE * 64);
+		int hashes = (int) Math.max(1, Math.round((double) bits / n * Math.log(2)));
+		return new BloomFilter(bits, hashes);
+	}
+
+	void add(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; ++i) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+			words[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return false if the key was certainly never added, true if it may have been.
+	 */
+	boolean mightContain(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; ++i) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+			if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 64-bit FNV-1a over the characters of the key, followed by a final avalanche mix.
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); ++i) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Save the filter, stamped with the current state of the dictionary file it describes.
+	 */
+	void write(File filterFile, File dictFile) throws IOException {
+		File temp = new File(filterFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numHashes);
+			out.writeLong(numBits);
+			out.writeLong(dictFile.length());
+			out.writeLong(DictionaryFiles.storedChecksum(dictFile));
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		} finally {
+			out.close();
+		}
+		DictionaryFiles.commit(temp, filterFile);
+	}
+
+	/**
+	 * Load a saved filter.
+	 * @return the filter, or null if there is none or it does not match the current dictionary file.
+	 */
+	static BloomFilter read(File filterFile, File dictFile) throws IOException {
+		long checksum = DictionaryFiles.storedChecksum(dictFile);
+		if (!filterFile.exists() || checksum < 0) {
+			return null;
+		}
+		try {
+			filterFile = DictionaryFiles.verified(filterFile);
+		} catch (IOException e) {
+			//no intact generation of the filter; the dictionary works without one
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filterFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				return null;
+			}
+			int hashes = in.readInt();
+			long bits = in.readLong();
+			if (in.readLong() != dictFile.length() || in.readLong() != checksum) {
+				return null;
+			}
+			BloomFilter filter = new BloomFilter(bits, hashes);
+			for (int i = 0; i < filter.words.length; ++i) {
+				filter.words[i] = in.readLong();
+			}
+			return filter;
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package dict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+
+/**
+ * Wraps any {@link PersistentDictionary} with a size-bounded cache of recently used entries,
+ * so hot entries are served from the heap while the bulk of a disk-backed dictionary stays on disk.
+ *
+ * The cache uses segmented-LRU eviction: a key enters the <i>probation</i> segment when it is first looked up,
+ * and moves to the <i>protected</i> segment (80% of the capacity) when it is looked up again.
+ * Keys that are evicted from the protected segment get another chance in probation; keys evicted from probation
+ * leave the cache. This keeps a burst of one-off lookups from flushing out the frequently used entries.
+ * Misses are cached too, since lookups of missing keys are common (e.g., spell checking).
+ *
+ * Any {@link #put(String, String)}, {@link #remove(Object)} or {@link #clear()} invalidates the affected entries
+ * once the wrapped dictionary has been changed.
+ * The cache is thread-safe if the wrapped dictionary is: it is guarded by its own short-lived lock,
+ * and the wrapped dictionary is never called while holding it.
+ *
+ * @author talm
+ *
+ */
+public class CachingDictionary implements PersistentDictionary {
+	private static final String ABSENT = new String("(absent)"); // cached "no such key", compared by identity
+
+	private final PersistentDictionary dictionary;
+	private final int protectedCapacity;
+	private final int probationCapacity;
+
+	private final LinkedHashMap<String, String> probation = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private final LinkedHashMap<String, String> protectedSegment = new LinkedHashMap<String, String>(16, 0.75f, true);
+	// bumped on every invalidation, so a value loaded before the invalidation is not cached after it
+	private long generation;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param dictionary the dictionary to cache
+	 * @param maximumSize the maximum number of cached keys
+	 */
+	public CachingDictionary(PersistentDictionary dictionary, int maximumSize) {
+		if (maximumSize < 2) {
+			throw new IllegalArgumentException("Cache size must be at least 2");
+		}
+		this.dictionary = dictionary;
+		protectedCapacity = maximumSize * 4 / 5;
+		probationCapacity = maximumSize - protectedCapacity;
+	}
+
+	@Override
+	public void open() throws IOException {
+		invalidateAll();
+		dictionary.open();
+	}
+
+	@Override
+	public void close() throws IOException {
+		invalidateAll();
+		dictionary.close();
+	}
+
+	@Override
+	public CompletableFuture<Void> flush() {
+		return dictionary.flush();
+	}
+
+	@Override
+	public String get(Object key) {
+		String k = (String) key;
+		long loadGeneration;
+		synchronized (this) {
+			String cached = lookup(k);
+			if (cached != null) {
+				hits++;
+				return cached == ABSENT ? null : cached;
+			}
+			misses++;
+			loadGeneration = generation;
+		}
+		String value = dictionary.get(k);
+		synchronized (this) {
+			if (loadGeneration == generation) {
+				admit(k, value == null ? ABSENT : value);
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		String old = dictionary.put(key, value);
+		invalidate(key);
+		return old;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return dictionary.size();
+	}
+
+	@Override
+	public String remove(Object key) {
+		String old = dictionary.remove(key);
+		invalidate((String) key);
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		dictionary.clear();
+		invalidateAll();
+	}
+
+	/**
+	 * Serves what it can from the cache and looks up the rest with one batched call.
+	 */
+	@Override
+	public Map<String, String> getAll(Collection<String> keys) {
+		Map<String, String> values = new HashMap<String, String>();
+		List<String> missing = new ArrayList<String>();
+		long loadGeneration;
+		synchronized (this) {
+			for (String key : keys) {
+				String cached = lookup(key);
+				if (cached == null) {
+					missing.add(key);
+				} else if (cached != ABSENT) {
+					values.put(key, cached);
+				}
+			}
+			hits += keys.size() - missing.size();
+			misses += missing.size();
+			loadGeneration = generation;
+		}
+		if (missing.isEmpty()) {
+			return values;
+		}
+		Map<String, String> loaded = dictionary.getAll(missing);
+		values.putAll(loaded);
+		synchronized (this) {
+			if (loadGeneration == generation) {
+				for (String key : missing) {
+					String value = loaded.get(key);
+					admit(key, value == null ? ABSENT : value);
+				}
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends String> map) {
+		dictionary.putAll(map);
+		synchronized (this) {
+			for (String key : map.keySet()) {
+				probation.remove(key);
+				protectedSegment.remove(key);
+			}
+			generation++;
+		}
+	}
+
+	@Override
+	public Stream<Map.Entry<String, String>> prefixScan(String prefix, int limit) {
+		return dictionary.prefixScan(prefix, limit);
+	}
+
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		return dictionary.range(from, to);
+	}
+
+	/*======= Statistics ======*/
+
+	/**
+	 * @return the number of lookups that were answered from the cache
+	 */
+	public synchronized long hitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that went to the wrapped dictionary
+	 */
+	public synchronized long missCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of keys dropped from the cache to make room for others
+	 */
+	public synchronized long evictionCount() {
+		return evictions;
+	}
+
+	/*======= Segmented LRU ======*/
+
+	/**
+	 * @return the cached value (possibly {@link #ABSENT}), or null if the key is not cached.
+	 * A key found in probation is promoted to the protected segment.
+	 */
+	private String lookup(String key) {
+		String value = protectedSegment.get(key);
+		if (value != null) {
+			return value;
+		}
+		value = probation.remove(key);
+		if (value != null) {
+			protectedSegment.put(key, value);
+			if (protectedSegment.size() > protectedCapacity) {
+				//demote the least recently used protected key back to probation
+				Iterator<Map.Entry<String, String>> eldest = protectedSegment.entrySet().iterator();
+				Map.Entry<String, String> demoted = eldest.next();
+				eldest.remove();
+				admit(demoted.getKey(), demoted.getValue());
+			}
+		}
+		return value;
+	}
+
+	private void admit(String key, String value) {
+		probation.put(key, value);
+		if (probation.size() > probationCapacity) {
+			Iterator<String> eldest = probation.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	private synchronized void invalidate(String key) {
+		probation.remove(key);
+		protectedSegment.remove(key);
+		generation++;
+	}
+
+	private synchronized void invalidateAll() {
+		probation.clear();
+		protectedSegment.clear();
+		generation++;
+	}
+}
@@ -0,0 +1,209 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+
+/**
+ * Implements a persistent dictionary that can be used by many threads at once.
+ * The entries are held in a {@link ConcurrentSkipListMap}, so reads never take a lock
+ * and proceed while other threads are writing.
+ *
+ * Writers share the read side of a read-write lock among themselves; {@link #close()} takes
+ * the write side only for as long as it takes to copy the entries, so the file it writes is a consistent
+ * snapshot, and readers are never stopped. The file is written in any {@link DictionaryFormat},
+ * and only if something changed since it was read. {@link #flush()} takes the snapshot the same way
+ * and writes it in the background.
+ *
+ * @author talm
+ *
+ */
+public class ConcurrentDictionary implements PersistentDictionary {
+
+	private final File file;
+	private final DictionaryFormat format;
+
+	private final ConcurrentSkipListMap<String, String> map = new ConcurrentSkipListMap<String, String>();
+	private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+	private final LongAdder modifications = new LongAdder();
+	// the modification count of the contents last written to the file
+	private volatile long savedVersion;
+	// ConcurrentSkipListMap.size() walks the whole map, so the size is kept separately
+	private final AtomicInteger size = new AtomicInteger();
+	private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+
+	public ConcurrentDictionary(File dictFile) {
+		this(dictFile, DictionaryFormat.TEXT);
+	}
+
+	/**
+	 * @param dictFile the dictionary file
+	 * @param format the format {@link #close()} writes the file in
+	 */
+	public ConcurrentDictionary(File dictFile, DictionaryFormat format) {
+		file = dictFile;
+		this.format = format;
+	}
+
+	@Override
+	public void open() throws IOException {
+		awaitFlush();
+		snapshotLock.writeLock().lock();
+		try {
+			map.clear();
+			DictionaryFiles.read(file, map);
+			modifications.reset();
+			savedVersion = 0;
+			size.set(map.size());
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		awaitFlush();
+		final TreeMap<String, String> snapshot;
+		final long version;
+		snapshotLock.writeLock().lock();
+		try {
+			version = modifications.sum();
+			if (version == savedVersion && file.exists()) {
+				return;
+			}
+			snapshot = new TreeMap<String, String>(map);
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+		save(version, snapshot);
+	}
+
+	@Override
+	public CompletableFuture<Void> flush() {
+		final TreeMap<String, String> snapshot;
+		final long version;
+		snapshotLock.writeLock().lock();
+		try {
+			version = modifications.sum();
+			if (version == savedVersion && file.exists()) {
+				return CompletableFuture.completedFuture(null);
+			}
+			snapshot = new TreeMap<String, String>(map);
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+		synchronized (this) {
+			lastFlush = DictionaryFiles.writeAfter(lastFlush, () -> save(version, snapshot));
+			return lastFlush;
+		}
+	}
+
+	private void save(long version, TreeMap<String, String> snapshot) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.write(temp, snapshot, format);
+		DictionaryFiles.commit(temp, file);
+		//changes made while the snapshot was being written still count
+		savedVersion = version;
+	}
+
+	private void awaitFlush() {
+		CompletableFuture<Void> flush;
+		synchronized (this) {
+			flush = lastFlush;
+		}
+		DictionaryFiles.await(flush);
+	}
+
+	@Override
+	public String get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		snapshotLock.readLock().lock();
+		try {
+			String old = map.put(key, value);
+			if (old == null) {
+				size.incrementAndGet();
+			}
+			modifications.increment();
+			return old;
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Takes the writers' lock once for the whole batch.
+	 */
+	@Override
+	public void putAll(Map<? extends String, ? extends String> entries) {
+		snapshotLock.readLock().lock();
+		try {
+			for (Map.Entry<? extends String, ? extends String> entry : entries.entrySet()) {
+				if (map.put(entry.getKey(), entry.getValue()) == null) {
+					size.incrementAndGet();
+				}
+			}
+			modifications.add(entries.size());
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public String remove(Object key) {
+		snapshotLock.readLock().lock();
+		try {
+			String old = map.remove(key);
+			if (old != null) {
+				size.decrementAndGet();
+				modifications.increment();
+			}
+			return old;
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		//exclusive, so that no put can slip in between emptying the map and resetting the size
+		snapshotLock.writeLock().lock();
+		try {
+			map.clear();
+			size.set(0);
+			modifications.increment();
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The stream is weakly consistent: it reflects some, but not necessarily all, changes made while it is consumed.
+	 */
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		return Keys.range(map, from, to);
+	}
+}
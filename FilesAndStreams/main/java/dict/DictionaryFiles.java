@@ -0,0 +1,940 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads and writes dictionary files in the formats described by {@link DictionaryFormat}.
+ * Reading detects the format automatically; entries are streamed in file order,
+ * so callers can load them into any structure.
+ *
+ * Files are written to a temporary file first and moved into place by {@link #commit(File, File)},
+ * which appends a checksum trailer, syncs the file to disk and keeps the replaced file as the previous
+ * generation (<pre>dictFile.prev</pre>). The trailer is a single line that is valid in every format:
+ * <pre>#CRC32C=xxxxxxxx\n</pre>
+ * with the CRC32C of everything before it in hexadecimal. Reading verifies the checksum first and, if it does not
+ * match, restores the previous generation over the corrupt file, so the next commit keeps a good file as the previous
+ * generation; a corrupt file is never kept as one. Text files without a trailer (written before it existed) are read
+ * without verification; a binary file always has one, so a binary file without a trailer has lost its end.
+ * A file is verified once per open: callers that read it more than once (for its header, a training sample and
+ * its entries) call {@link #verified(File)} themselves and pass the verified file to the methods that take one,
+ * and {@link #readChecked(File, EntryHandler)} checks the checksum while it streams the entries, for callers that
+ * can not wait for a verification pass before the first entry.
+ *
+ * @author talm
+ *
+ */
+final class DictionaryFiles {
+	static final byte[] MAGIC = { (byte) 0xD1, 'D', 'I', 'C' };
+	static final int VERSION = 1;
+	static final int FLAG_FRONT_CODED = 1;
+	static final int FLAG_COMPRESSED = 2;
+	// magic, version, flags, then the entry count as a fixed-width long so it can be patched in after writing
+	static final int COUNT_OFFSET = MAGIC.length + 2;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// text entries always contain ':', so a line without one can not be mistaken for an entry
+	static final String TRAILER_PREFIX = "#CRC32C=";
+	private static final int TRAILER_SIZE = TRAILER_PREFIX.length() + 9;
+
+	/**
+	 * Receives the entries of a dictionary file in file order.
+	 */
+	interface EntryHandler {
+		/**
+		 * @return false to stop reading
+		 */
+		boolean entry(String key, String value) throws IOException;
+	}
+
+	/**
+	 * Receives the entries of a dictionary file in file order, as UTF-8 bytes:
+	 * the key is bytes[keyOffset, keyOffset + keyLength) and the value bytes[valueOffset, valueOffset + valueLength).
+	 * The bytes are only valid during the call.
+	 */
+	interface RawEntryHandler {
+		/**
+		 * @return false to stop reading
+		 */
+		boolean entry(byte[] bytes, int keyOffset, int keyLength, int valueOffset, int valueLength) throws IOException;
+	}
+
+	/**
+	 * Receives the entries of a binary file as they are read: the key is bytes[0, keyLength), followed by
+	 * the value as it is stored (compressed, if the file has a compressor).
+	 */
+	private interface BinaryEntryHandler {
+		boolean entry(byte[] bytes, int keyLength, int valueLength, ValueCompressor compressor) throws IOException;
+	}
+
+	/**
+	 * Writes the entries of a dictionary file one at a time.
+	 */
+	static abstract class EntryWriter implements Closeable {
+		abstract void write(String key, String value) throws IOException;
+
+		/**
+		 * Write an entry whose value is already compressed by the writer's {@link ValueCompressor}.
+		 * @throws UnsupportedOperationException if the writer does not compress values
+		 */
+		void writeCompressed(String key, byte[] value) throws IOException {
+			throw new UnsupportedOperationException("This dictionary format does not compress values");
+		}
+	}
+
+	/**
+	 * Work that writes a dictionary file.
+	 */
+	interface WriteTask {
+		void run() throws IOException;
+	}
+
+	// background writers for flush(); daemon threads, so a pending flush does not keep the program alive
+	private static final ExecutorService FLUSHER = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "dictionary-flusher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private DictionaryFiles() {
+	}
+
+	/**
+	 * Run a write in the background once a previous one has finished (whether or not it succeeded),
+	 * so that the writes of a dictionary never overlap.
+	 * @return a future that completes when the write is done, or completes exceptionally with its failure
+	 */
+	static CompletableFuture<Void> writeAfter(CompletableFuture<Void> previous, final WriteTask task) {
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+		previous.whenCompleteAsync((ignored, failure) -> {
+			try {
+				task.run();
+				done.complete(null);
+			} catch (IOException | RuntimeException e) {
+				done.completeExceptionally(e);
+			}
+		}, FLUSHER);
+		return done;
+	}
+
+	/**
+	 * Wait for a background write to finish; its failure (if any) was already reported to whoever asked for it.
+	 */
+	static void await(CompletableFuture<Void> write) {
+		try {
+			write.join();
+		} catch (RuntimeException e) {
+			//reported through the future
+		}
+	}
+
+	static DictionaryFormat detect(File file) throws IOException {
+		return format(verified(file));
+	}
+
+	/**
+	 * @param file a verified dictionary file (see {@link #verified(File)})
+	 * @return the format the file is stored in
+	 */
+	static DictionaryFormat format(File file) throws IOException {
+		if (!file.exists()) {
+			return DictionaryFormat.TEXT;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if (readBinaryHeader(in) < 0) {
+				return DictionaryFormat.TEXT;
+			}
+			int flags = in.read();
+			return (flags & FLAG_COMPRESSED) != 0 ? DictionaryFormat.BINARY_COMPRESSED
+					: (flags & FLAG_FRONT_CODED) != 0 ? DictionaryFormat.BINARY_FRONT_CODED : DictionaryFormat.BINARY;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param file a verified dictionary file (see {@link #verified(File)})
+	 * @return the value compressor stored in the header of the file, or null if its values are not compressed
+	 */
+	static ValueCompressor compressor(File file) throws IOException {
+		if (format(file) != DictionaryFormat.BINARY_COMPRESSED) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			readBinaryHeader(in);
+			in.readUnsignedByte();
+			in.readLong();
+			return readCompressor(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Train a value compressor on the first values of a dictionary file.
+	 * @param file a verified dictionary file (see {@link #verified(File)})
+	 */
+	static ValueCompressor train(File file) throws IOException {
+		final List<String> samples = new ArrayList<String>();
+		readVerified(file, new EntryHandler() {
+			@Override
+			public boolean entry(String key, String value) {
+				samples.add(value);
+				return samples.size() < ValueCompressor.SAMPLE_SIZE;
+			}
+		});
+		return ValueCompressor.train(samples, ValueCompressor.DEFAULT_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * Train a value compressor on values spread evenly over a collection.
+	 */
+	static ValueCompressor train(Collection<String> values) {
+		List<String> samples = new ArrayList<String>();
+		int step = Math.max(1, values.size() / ValueCompressor.SAMPLE_SIZE);
+		int i = 0;
+		for (String value : values) {
+			if (i++ % step == 0) {
+				samples.add(value);
+			}
+		}
+		return ValueCompressor.train(samples, ValueCompressor.DEFAULT_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * Read every entry of a dictionary file into a map.
+	 * A missing file is treated as an empty dictionary.
+	 * @param file the dictionary file
+	 * @param map the map the entries are put into (later entries override earlier ones)
+	 * @throws IOException
+	 */
+	static void read(File file, Map<String, String> map) throws IOException {
+		readVerified(verified(file), map);
+	}
+
+	/**
+	 * Read every entry of a verified dictionary file (see {@link #verified(File)}) into a map.
+	 */
+	static void readVerified(File file, final Map<String, String> map) throws IOException {
+		readVerified(file, new EntryHandler() {
+			@Override
+			public boolean entry(String key, String value) {
+				map.put(key, value);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Stream the entries of a dictionary file, in file order, to a handler.
+	 * A missing file is treated as an empty dictionary.
+	 * @throws IOException if neither the file nor its previous generation pass verification
+	 */
+	static void read(File file, EntryHandler handler) throws IOException {
+		readVerified(verified(file), handler);
+	}
+
+	/**
+	 * Stream the entries of a verified dictionary file (see {@link #verified(File)}), in file order, to a handler.
+	 * A missing file is treated as an empty dictionary.
+	 */
+	static void readVerified(File file, final EntryHandler handler) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		final Charset charset = Charset.defaultCharset();
+		boolean done = scanText(file, new TextScanner.LineHandler() {
+			@Override
+			public boolean line(byte[] bytes, int start, int colon, int end) throws IOException {
+				return handler.entry(new String(bytes, start, colon - start, charset),
+						new String(bytes, colon + 1, end - colon - 1, charset));
+			}
+		});
+		if (done) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			in.mark(MAGIC.length + 1);
+			if (readBinaryHeader(in) < 0) {
+				in.reset();
+				readText(new BufferedReader(new InputStreamReader(in)), handler);
+			} else {
+				readBinary(in, new BinaryEntryHandler() {
+					@Override
+					public boolean entry(byte[] bytes, int keyLength, int valueLength, ValueCompressor compressor) throws IOException {
+						return handler.entry(new String(bytes, 0, keyLength, StandardCharsets.UTF_8), compressor != null
+								? compressor.decompress(bytes, keyLength, valueLength) : new String(bytes, keyLength, valueLength, StandardCharsets.UTF_8));
+					}
+				});
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stream the entries of a dictionary file, in file order, to a handler that takes them as UTF-8 bytes,
+	 * for callers that store the bytes rather than strings.
+	 * Entries of UTF-8 text files, ASCII lines of other text files and uncompressed binary entries are passed on
+	 * as they are read, without creating any objects; other entries are decoded and re-encoded.
+	 * A missing file is treated as an empty dictionary.
+	 * @throws IOException if neither the file nor its previous generation pass verification
+	 */
+	static void readRaw(File file, RawEntryHandler handler) throws IOException {
+		readRawVerified(verified(file), handler);
+	}
+
+	/**
+	 * Stream the entries of a verified dictionary file (see {@link #verified(File)}) as UTF-8 bytes,
+	 * like {@link #readRaw(File, RawEntryHandler)}.
+	 */
+	static void readRawVerified(File file, final RawEntryHandler handler) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		final Charset charset = Charset.defaultCharset();
+		final boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+		boolean done = scanText(file, new TextScanner.LineHandler() {
+			@Override
+			public boolean line(byte[] bytes, int start, int colon, int end) throws IOException {
+				if (utf8 || TextScanner.ascii(bytes, start, end)) {
+					return handler.entry(bytes, start, colon - start, colon + 1, end - colon - 1);
+				}
+				return rawEntry(new String(bytes, start, colon - start, charset),
+						new String(bytes, colon + 1, end - colon - 1, charset), handler);
+			}
+		});
+		if (done) {
+			return;
+		}
+		if (format(file) == DictionaryFormat.TEXT) {
+			//a charset that can not be scanned
+			readVerified(file, new EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) throws IOException {
+					return rawEntry(key, value, handler);
+				}
+			});
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			readBinaryHeader(in);
+			readBinary(in, new BinaryEntryHandler() {
+				@Override
+				public boolean entry(byte[] bytes, int keyLength, int valueLength, ValueCompressor compressor) throws IOException {
+					if (compressor == null) {
+						return handler.entry(bytes, 0, keyLength, keyLength, valueLength);
+					}
+					byte[] value = compressor.decompress(bytes, keyLength, valueLength).getBytes(StandardCharsets.UTF_8);
+					byte[] entry = Arrays.copyOf(bytes, keyLength + value.length);
+					System.arraycopy(value, 0, entry, keyLength, value.length);
+					return handler.entry(entry, 0, keyLength, keyLength, value.length);
+				}
+			});
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean rawEntry(String key, String value, RawEntryHandler handler) throws IOException {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		byte[] v = value.getBytes(StandardCharsets.UTF_8);
+		byte[] entry = Arrays.copyOf(k, k.length + v.length);
+		System.arraycopy(v, 0, entry, k.length, v.length);
+		return handler.entry(entry, 0, k.length, k.length, v.length);
+	}
+
+	/**
+	 * Scan a text file at the byte level, if the platform charset allows it.
+	 * @return false if the file has to be read some other way: it is binary, or the charset can not be scanned
+	 */
+	private static boolean scanText(File file, TextScanner.LineHandler handler) throws IOException {
+		if (!TextScanner.scannable(Charset.defaultCharset())) {
+			return false;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			while (magic.hasRemaining()) {
+				if (channel.read(magic) < 0) {
+					break;
+				}
+			}
+			if (Arrays.equals(magic.array(), MAGIC)) {
+				return false;
+			}
+			TextScanner.scan(channel.position(0), handler);
+			return true;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Write the entries of a map to a dictionary file, replacing its previous contents.
+	 * @param file the dictionary file
+	 * @param map the entries to write, in iteration order
+	 * @param format the format to write
+	 * @throws IOException
+	 */
+	static void write(File file, Map<String, String> map, DictionaryFormat format) throws IOException {
+		EntryWriter writer = writer(file, format, format == DictionaryFormat.BINARY_COMPRESSED ? train(map.values()) : null);
+		try {
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				writer.write(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Open a writer that replaces the contents of a dictionary file.
+	 */
+	static EntryWriter writer(File file, DictionaryFormat format) throws IOException {
+		return writer(file, format, null);
+	}
+
+	/**
+	 * Open a writer that replaces the contents of a dictionary file.
+	 * @param compressor the compressor for the values of a {@link DictionaryFormat#BINARY_COMPRESSED} file;
+	 * if null, values are compressed without a preset dictionary
+	 */
+	static EntryWriter writer(File file, DictionaryFormat format, ValueCompressor compressor) throws IOException {
+		switch (format) {
+		case TEXT:
+			return new TextWriter(file);
+		case BINARY:
+			return new BinaryWriter(file, false, null);
+		case BINARY_FRONT_CODED:
+			return new BinaryWriter(file, true, null);
+		default:
+			return new BinaryWriter(file, true, compressor != null ? compressor : new ValueCompressor(new byte[0]));
+		}
+	}
+
+	/**
+	 * Move a freshly written temporary file over a dictionary file, so that a crash at any point leaves either
+	 * the old or the new file in place, never a half-written one.
+	 * The checksum trailer is appended to the temporary file and the file is synced to disk before it is renamed;
+	 * the old file is kept as the previous generation.
+	 * The rename is atomic where the platform supports it.
+	 * @throws IOException if the file can not be replaced
+	 */
+	static void commit(File temp, File file) throws IOException {
+		FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long length = channel.size();
+			byte[] trailer = trailer(checksum(channel, length));
+			channel.write(ByteBuffer.wrap(trailer), length);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+
+		File previous = previousGeneration(file);
+		//a corrupt file must not replace the previous generation, which may be the only good one
+		if (file.exists() && verify(file)) {
+			Files.deleteIfExists(previous.toPath());
+			try {
+				Files.createLink(previous.toPath(), file.toPath());
+			} catch (IOException | UnsupportedOperationException e) {
+				Files.copy(file.toPath(), previous.toPath());
+			}
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		syncDirectory(file.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * @return the file that keeps the previous generation of a dictionary file
+	 */
+	static File previousGeneration(File file) {
+		return new File(file.getPath() + ".prev");
+	}
+
+	/**
+	 * Check the checksum trailer of a dictionary file, and restore its previous generation if it is corrupt.
+	 * @return the file if it passes (or is a text file without a trailer, or is missing) or was restored,
+	 * otherwise its previous generation if that passes but could not be restored
+	 * @throws IOException if neither passes
+	 */
+	static File verified(File file) throws IOException {
+		if (!file.exists() || verify(file)) {
+			return file;
+		}
+		return restorePrevious(file);
+	}
+
+	/**
+	 * Replace a corrupt dictionary file by a copy of its previous generation, moved into place atomically.
+	 * @return the restored file, or the previous generation itself if it could not be copied
+	 * @throws IOException if there is no intact previous generation
+	 */
+	static File restorePrevious(File file) throws IOException {
+		File previous = previousGeneration(file);
+		if (!previous.exists() || !verify(previous)) {
+			throw new IOException("Dictionary file " + file + " is corrupt.");
+		}
+		System.err.println("Error: " + file + " is corrupt, restoring the previous generation");
+		File temp = new File(file.getPath() + ".restore");
+		try {
+			Files.copy(previous.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			syncDirectory(file.getAbsoluteFile().getParentFile());
+			return file;
+		} catch (IOException e) {
+			//the previous generation is intact, so it can still be read where it is
+			System.err.println("Error: " + e);
+			temp.delete();
+			return previous;
+		}
+	}
+
+	private static boolean verify(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			byte[] stored = storedTrailer(channel);
+			if (stored == null) {
+				return !hasBinaryHeader(channel);
+			}
+			return Arrays.equals(stored, trailer(checksum(channel, channel.size() - TRAILER_SIZE)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return true if the file starts like a binary dictionary file, which is only ever written with a trailer
+	 */
+	private static boolean hasBinaryHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+		while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+		}
+		return !header.hasRemaining() && Arrays.equals(header.array(), MAGIC);
+	}
+
+	/**
+	 * @return the checksum stored in the trailer of a dictionary file (without checking it),
+	 * or -1 if the file is missing or has no trailer
+	 */
+	static long storedChecksum(File file) throws IOException {
+		if (!file.exists()) {
+			return -1;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			byte[] stored = storedTrailer(channel);
+			if (stored == null) {
+				return -1;
+			}
+			try {
+				return Long.parseLong(new String(stored, TRAILER_PREFIX.length(), 8, StandardCharsets.ISO_8859_1), 16);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the checksum trailer at the end of a file, or null if it has none
+	 */
+	private static byte[] storedTrailer(FileChannel channel) throws IOException {
+		long length = channel.size() - TRAILER_SIZE;
+		if (length < 0) {
+			return null;
+		}
+		ByteBuffer stored = ByteBuffer.allocate(TRAILER_SIZE);
+		while (stored.hasRemaining() && channel.read(stored, length + stored.position()) >= 0) {
+		}
+		String trailer = new String(stored.array(), StandardCharsets.ISO_8859_1);
+		if (!trailer.startsWith(TRAILER_PREFIX) || !trailer.endsWith("\n")) {
+			return null;
+		}
+		return stored.array();
+	}
+
+	/**
+	 * Stream the entries of a dictionary file, in file order, to a handler, checking the checksum trailer
+	 * as the file is read instead of in a pass of its own, so the first entries reach the handler at once.
+	 * The previous generation is not read: the caller decides what to do with the entries of a corrupt file.
+	 * A missing file is treated as an empty dictionary.
+	 * @return false if the file is corrupt (the handler has then received some or all of its entries)
+	 */
+	static boolean readChecked(File file, final EntryHandler handler) throws IOException {
+		if (!file.exists()) {
+			return true;
+		}
+		ChecksumInputStream checked = new ChecksumInputStream(file);
+		try {
+			try {
+				stream(new DataInputStream(new BufferedInputStream(checked, BUFFER_SIZE)), handler);
+			} catch (IOException | RuntimeException e) {
+				//damaged bytes may not parse at all; that is only an error of its own if the checksum matches
+				if (checked.verify()) {
+					throw e;
+				}
+				return false;
+			}
+			return checked.verify();
+		} finally {
+			checked.close();
+		}
+	}
+
+	/**
+	 * Stream the entries of a dictionary file in any format from an input stream.
+	 */
+	private static void stream(DataInputStream in, final EntryHandler handler) throws IOException {
+		in.mark(MAGIC.length + 1);
+		if (readBinaryHeader(in) >= 0) {
+			readBinary(in, new BinaryEntryHandler() {
+				@Override
+				public boolean entry(byte[] bytes, int keyLength, int valueLength, ValueCompressor compressor) throws IOException {
+					return handler.entry(new String(bytes, 0, keyLength, StandardCharsets.UTF_8), compressor != null
+							? compressor.decompress(bytes, keyLength, valueLength) : new String(bytes, keyLength, valueLength, StandardCharsets.UTF_8));
+				}
+			});
+		} else {
+			in.reset();
+			final Charset charset = Charset.defaultCharset();
+			if (TextScanner.scannable(charset)) {
+				TextScanner.scan(Channels.newChannel(in), new TextScanner.LineHandler() {
+					@Override
+					public boolean line(byte[] bytes, int start, int colon, int end) throws IOException {
+						return handler.entry(new String(bytes, start, colon - start, charset),
+								new String(bytes, colon + 1, end - colon - 1, charset));
+					}
+				});
+			} else {
+				readText(new BufferedReader(new InputStreamReader(in)), handler);
+			}
+		}
+	}
+
+	/**
+	 * Computes the checksum of a dictionary file as it is read, for {@link DictionaryFiles#readChecked(File, EntryHandler)}.
+	 */
+	private static final class ChecksumInputStream extends FilterInputStream {
+		private final CRC32C crc = new CRC32C();
+		private final byte[] stored; // the trailer of the file, or null if it has none
+		private final boolean binary; // a binary file without a trailer is corrupt
+		private final long length; // the number of bytes the checksum covers
+		private long position;
+
+		ChecksumInputStream(File file) throws IOException {
+			super(new FileInputStream(file));
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			stored = storedTrailer(channel);
+			binary = hasBinaryHeader(channel);
+			length = channel.size() - (stored == null ? 0 : TRAILER_SIZE);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				if (position < length) {
+					crc.update(b);
+				}
+				position++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				crc.update(b, off, (int) Math.max(0, Math.min(n, length - position)));
+				position += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			//skipped bytes are checksummed too
+			byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(0, n))];
+			int skipped = read(buffer, 0, buffer.length);
+			return Math.max(0, skipped);
+		}
+
+		/**
+		 * Read the rest of the bytes the checksum covers.
+		 * @return true if they match the trailer, or the file is a text file without one
+		 */
+		boolean verify() throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (position < length && read(buffer, 0, (int) Math.min(buffer.length, length - position)) >= 0) {
+			}
+			if (stored == null) {
+				return !binary;
+			}
+			return position >= length && Arrays.equals(stored, trailer((int) crc.getValue()));
+		}
+	}
+
+	private static int checksum(FileChannel channel, long length) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		for (long position = 0; position < length; ) {
+			buffer.clear();
+			if (length - position < buffer.capacity()) {
+				buffer.limit((int) (length - position));
+			}
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new EOFException("Dictionary file is shorter than expected");
+			}
+			buffer.flip();
+			crc.update(buffer);
+			position += n;
+		}
+		return (int) crc.getValue();
+	}
+
+	private static byte[] trailer(int checksum) {
+		return String.format("%s%08x\n", TRAILER_PREFIX, checksum).getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Sync a directory, so a rename inside it survives a crash. Not every platform can open a directory;
+	 * there the rename is as durable as the platform makes it.
+	 */
+	private static void syncDirectory(File directory) {
+		try {
+			FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			//not supported here
+		}
+	}
+
+	/**
+	 * Consume the magic and version of a binary file.
+	 * @return the version, or -1 if the stream does not start with the binary magic
+	 */
+	private static int readBinaryHeader(DataInputStream in) throws IOException {
+		for (byte b : MAGIC) {
+			if (in.read() != (b & 0xff)) {
+				return -1;
+			}
+		}
+		int version = in.read();
+		if (version != VERSION) {
+			throw new IOException("Unsupported dictionary file version " + version);
+		}
+		return version;
+	}
+
+	private static void readText(BufferedReader reader, EntryHandler handler) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			//split the line at the first ':' character
+			int i = line.indexOf(':');
+			if (i < 0 && line.startsWith(TRAILER_PREFIX)) {
+				break;
+			}
+			if (!handler.entry(line.substring(0, i), line.substring(i + 1))) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Read the entries of a binary file into one reused buffer: each key overwrites the previous one after the
+	 * prefix they share, and the value follows it.
+	 */
+	private static void readBinary(DataInputStream in, BinaryEntryHandler handler) throws IOException {
+		int flags = in.readUnsignedByte();
+		boolean frontCoded = (flags & FLAG_FRONT_CODED) != 0;
+		long count = in.readLong();
+		ValueCompressor compressor = (flags & FLAG_COMPRESSED) != 0 ? readCompressor(in) : null;
+		byte[] bytes = new byte[128];
+		for (long i = 0; i < count; ++i) {
+			int shared = frontCoded ? readVarint(in) : 0;
+			int keyLength = shared + readVarint(in);
+			if (keyLength > bytes.length) {
+				bytes = grow(bytes, keyLength, shared);
+			}
+			in.readFully(bytes, shared, keyLength - shared);
+
+			int valueLength = readVarint(in);
+			if (keyLength + valueLength > bytes.length) {
+				bytes = grow(bytes, keyLength + valueLength, keyLength);
+			}
+			in.readFully(bytes, keyLength, valueLength);
+
+			if (!handler.entry(bytes, keyLength, valueLength, compressor)) {
+				break;
+			}
+		}
+	}
+
+	private static ValueCompressor readCompressor(DataInputStream in) throws IOException {
+		byte[] preset = new byte[readVarint(in)];
+		in.readFully(preset);
+		return new ValueCompressor(preset);
+	}
+
+	private static byte[] grow(byte[] buffer, int length, int keep) {
+		byte[] bigger = new byte[Math.max(length, 2 * buffer.length)];
+		System.arraycopy(buffer, 0, bigger, 0, keep);
+		return bigger;
+	}
+
+	static int readVarint(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in dictionary file");
+	}
+
+	static void writeVarint(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static final class TextWriter extends EntryWriter {
+		private final BufferedWriter writer;
+
+		TextWriter(File file) throws IOException {
+			writer = new BufferedWriter(new FileWriter(file), BUFFER_SIZE);
+		}
+
+		@Override
+		void write(String key, String value) throws IOException {
+			writer.write(key);
+			writer.write(':');
+			writer.write(value);
+			writer.newLine();
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the binary format. The entry count in the header is only known at the end,
+	 * so it is patched in when the writer is closed.
+	 */
+	private static final class BinaryWriter extends EntryWriter {
+		private final File file;
+		private final boolean frontCoded;
+		private final ValueCompressor compressor;
+		private final DataOutputStream out;
+		private byte[] previous = new byte[0];
+		private long count;
+
+		BinaryWriter(File file, boolean frontCoded, ValueCompressor compressor) throws IOException {
+			this.file = file;
+			this.frontCoded = frontCoded;
+			this.compressor = compressor;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte((frontCoded ? FLAG_FRONT_CODED : 0) | (compressor != null ? FLAG_COMPRESSED : 0));
+			out.writeLong(0);
+			if (compressor != null) {
+				writeVarint(out, compressor.presetDictionary().length);
+				out.write(compressor.presetDictionary());
+			}
+		}
+
+		@Override
+		void write(String key, String value) throws IOException {
+			writeEntry(key, compressor != null ? compressor.compress(value) : value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		void writeCompressed(String key, byte[] value) throws IOException {
+			if (compressor == null) {
+				super.writeCompressed(key, value);
+			}
+			writeEntry(key, value);
+		}
+
+		private void writeEntry(String key, byte[] valueBytes) throws IOException {
+			byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			int shared = 0;
+			if (frontCoded) {
+				int max = Math.min(previous.length, keyBytes.length);
+				while (shared < max && previous[shared] == keyBytes[shared]) {
+					shared++;
+				}
+				writeVarint(out, shared);
+				previous = keyBytes;
+			}
+			writeVarint(out, keyBytes.length - shared);
+			out.write(keyBytes, shared, keyBytes.length - shared);
+			writeVarint(out, valueBytes.length);
+			out.write(valueBytes);
+			count++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(COUNT_OFFSET);
+				raf.writeLong(count);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
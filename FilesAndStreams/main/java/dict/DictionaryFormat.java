@@ -0,0 +1,74 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The file formats a dictionary can be stored in.
+ *
+ * <ul>
+ * <li>{@link #TEXT}: one entry per line, <pre>word:def1:def2:def3,...</pre> in the platform's default charset.
+ * <li>{@link #BINARY}: a versioned header with the entry count, followed by varint-length-prefixed UTF-8 records.
+ * <li>{@link #BINARY_FRONT_CODED}: like {@link #BINARY}, but each key only stores the bytes that differ from
+ * the previous key. Since dictionaries are written in sorted order, neighbouring keys share long prefixes.
+ * <li>{@link #BINARY_COMPRESSED}: like {@link #BINARY_FRONT_CODED}, but each value is compressed on its own with
+ * Deflate, primed with a preset dictionary trained from the values and stored in the header.
+ * Dictionaries that keep their values in memory in this form only decompress a value when it is looked up.
+ * </ul>
+ *
+ * The binary layout is:
+ * <pre>
+ * magic:0xD1 'D' 'I' 'C'  version:byte  flags:byte  count:long  [presetLen:varint preset]
+ * record*:  [sharedPrefixLen:varint] keyLen:varint key  valueLen:varint value
+ * </pre>
+ * The magic starts with a byte that can not begin a line of UTF-8 or ASCII text,
+ * so {@link #detect(File)} can tell the formats apart.
+ *
+ * @author talm
+ *
+ */
+public enum DictionaryFormat {
+	TEXT,
+	BINARY,
+	BINARY_FRONT_CODED,
+	BINARY_COMPRESSED;
+
+	/**
+	 * Find out which format a dictionary file is stored in.
+	 * Missing and empty files are reported as {@link #TEXT}.
+	 * @param file the dictionary file
+	 * @return the format of the file
+	 * @throws IOException
+	 */
+	public static DictionaryFormat detect(File file) throws IOException {
+		return DictionaryFiles.detect(file);
+	}
+
+	/**
+	 * Rewrite a dictionary file in another format.
+	 * The source format is detected automatically and entries are copied one at a time, in file order;
+	 * the source and target may be the same file.
+	 * @param source the file to convert
+	 * @param target the file to write
+	 * @param format the format of the target file
+	 * @throws IOException
+	 */
+	public static void convert(File source, File target, DictionaryFormat format) throws IOException {
+		File temp = new File(target.getPath() + ".tmp");
+		source = DictionaryFiles.verified(source);
+		ValueCompressor compressor = format == BINARY_COMPRESSED ? DictionaryFiles.train(source) : null;
+		final DictionaryFiles.EntryWriter writer = DictionaryFiles.writer(temp, format, compressor);
+		try {
+			DictionaryFiles.readVerified(source, new DictionaryFiles.EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) throws IOException {
+					writer.write(key, value);
+					return true;
+				}
+			});
+		} finally {
+			writer.close();
+		}
+		DictionaryFiles.commit(temp, target);
+	}
+}
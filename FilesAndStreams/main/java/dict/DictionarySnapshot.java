@@ -0,0 +1,213 @@
+package dict;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A read-only view of an {@link InMemoryDictionary} as it was when {@link InMemoryDictionary#snapshot()} was called.
+ * Taking a snapshot takes constant time, and the dictionary can be changed while the snapshot is read.
+ *
+ * The snapshot is copy-on-write per key: it reads the live dictionary, and before a key changes for the first time
+ * after the snapshot was taken, the dictionary saves the key's old value (or its absence) for the snapshot, which
+ * reads the saved values in place of the live ones. All the snapshots taken between two changes share the saved
+ * values, so a write costs one map insertion per version in use, and nothing is copied if nothing is written before
+ * the export ends. Only when the dictionary is cleared (or reopened) does it hand the snapshot a full copy.
+ * Iterators never hold on to a live {@link TreeMap} iterator: they fetch entries in small chunks, starting after the
+ * last key they returned, so they never throw {@link java.util.ConcurrentModificationException}.
+ *
+ * When the snapshot reads the live dictionary it synchronizes on it, as the {@link PersistentDictionary} methods
+ * that change the dictionary do, so a snapshot can be read on one thread (by a background flush, for example)
+ * while the dictionary is changed on another.
+ *
+ * @author talm
+ *
+ */
+public final class DictionarySnapshot extends AbstractMap<String, String> {
+	private static final int CHUNK = 256; // entries fetched per lock acquisition
+
+	/**
+	 * The state shared by the snapshots taken between two changes to the dictionary.
+	 */
+	static final class Version {
+		// the values the keys changed since the snapshots were taken had then (null if they were missing);
+		// guarded by the dictionary's lock
+		final TreeMap<String, String> changed = new TreeMap<String, String>();
+		// all the entries as they were when the snapshots were taken, once the dictionary has been cleared
+		volatile TreeMap<String, String> copy;
+	}
+
+	private final InMemoryDictionary dictionary;
+	private final Version version;
+	private final int size;
+
+	DictionarySnapshot(InMemoryDictionary dictionary, Version version, int size) {
+		this.dictionary = dictionary;
+		this.version = version;
+		this.size = size;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String get(Object key) {
+		TreeMap<String, String> copy = version.copy;
+		if (copy != null) {
+			return copy.get(key);
+		}
+		synchronized (dictionary) {
+			copy = version.copy;
+			if (copy != null) {
+				return copy.get(key);
+			}
+			return version.changed.containsKey(key) ? version.changed.get(key) : dictionary.peek(key);
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new ChunkIterator(null, null);
+			}
+		};
+	}
+
+	/**
+	 * Stream the entries in the range [from, to), as read-only entries.
+	 * @param to the exclusive upper bound, or null for no upper bound
+	 */
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ChunkIterator(from, to),
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Stream the entries whose keys start with a prefix, in key order.
+	 */
+	public Stream<Map.Entry<String, String>> prefixScan(String prefix, int limit) {
+		return range(prefix, Keys.prefixEnd(prefix)).limit(limit);
+	}
+
+	/**
+	 * Iterates over the keys in [from, to), a chunk at a time.
+	 */
+	private final class ChunkIterator implements Iterator<Map.Entry<String, String>> {
+		private final String to;
+		private final Object[] chunk = new Object[CHUNK];
+		private int length;
+		private int next;
+		private String after; // the last key fetched, or null before the first fetch
+		private String from;
+		private boolean exhausted;
+
+		ChunkIterator(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == length && !exhausted) {
+				fetch();
+			}
+			return next < length;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Map.Entry<String, String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return (Map.Entry<String, String>) chunk[next++];
+		}
+
+		private void fetch() {
+			TreeMap<String, String> copy = version.copy;
+			if (copy != null) {
+				fetch(copy, null);
+			} else {
+				synchronized (dictionary) {
+					copy = version.copy;
+					if (copy != null) {
+						fetch(copy, null);
+					} else {
+						fetch(dictionary, version.changed);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Fetch the next chunk of the live entries, with the saved values of the changed keys in place of theirs.
+		 * @param changed the saved values, or null to read <i>map</i> as it is
+		 */
+		private void fetch(NavigableMap<String, String> map, NavigableMap<String, String> changed) {
+			Iterator<Map.Entry<String, String>> live = tail(map).entrySet().iterator();
+			Iterator<Map.Entry<String, String>> saved = changed == null ? null : tail(changed).entrySet().iterator();
+			Map.Entry<String, String> nextLive = advance(live);
+			Map.Entry<String, String> nextSaved = advance(saved);
+			length = 0;
+			next = 0;
+			while (length < CHUNK && (nextLive != null || nextSaved != null)) {
+				int c = nextLive == null ? 1 : nextSaved == null ? -1 : nextLive.getKey().compareTo(nextSaved.getKey());
+				Map.Entry<String, String> entry;
+				if (c < 0) {
+					entry = nextLive;
+					nextLive = advance(live);
+				} else {
+					//the saved value of a changed key replaces the live one
+					entry = nextSaved;
+					nextSaved = advance(saved);
+					if (c == 0) {
+						nextLive = advance(live);
+					}
+				}
+				if (to != null && entry.getKey().compareTo(to) >= 0) {
+					exhausted = true;
+					break;
+				}
+				after = entry.getKey();
+				if (entry.getValue() != null) {
+					chunk[length++] = Keys.readOnly(entry);
+				}
+			}
+			if (nextLive == null && nextSaved == null) {
+				exhausted = true;
+			}
+			from = null;
+		}
+
+		private NavigableMap<String, String> tail(NavigableMap<String, String> map) {
+			return after != null ? map.tailMap(after, false) : from != null ? map.tailMap(from, true) : map;
+		}
+
+		private Map.Entry<String, String> advance(Iterator<Map.Entry<String, String>> it) {
+			return it != null && it.hasNext() ? it.next() : null;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+
+/**
+ * Implements an immutable persistent dictionary for read-mostly use.
+ *
+ * Instead of a tree node and two strings per entry, all keys are packed into a single char array
+ * (and all values into another), with an array of offsets marking where each one starts; entries are sorted by key.
+ * Lookups use an Eytzinger (breadth-first) layout of the sorted ranks, so the first levels of every search
+ * share the same few cache lines, and keys are compared in place without creating strings.
+ *
+ * A frozen dictionary is created by {@link #open()}ing a dictionary file, or from a mutable dictionary with
+ * {@link InMemoryDictionary#freeze()}; {@link #thaw()} turns it back into a mutable one.
+ * {@link #put(String, String)}, {@link #remove(Object)} and {@link #clear()} throw {@link UnsupportedOperationException}.
+ * {@link #close()} writes the file only if the contents did not come from it.
+ * The packed arrays are indexed by int, so a frozen dictionary holds up to 2G characters of keys (and of values).
+ *
+ * @author talm
+ *
+ */
+public class FrozenDictionary implements PersistentDictionary {
+	private final File file;
+	private final DictionaryFormat format;
+
+	private char[] keyChars = new char[0];
+	private int[] keyOffsets = { 0 };
+	private char[] valueChars = new char[0];
+	private int[] valueOffsets = { 0 };
+	// eytzinger[k] is the rank of the key at node k of an implicit binary search tree (root at 1)
+	private int[] eytzinger = { 0 };
+	private int size;
+	// true if the contents have not been written to the file
+	private boolean unsaved;
+
+	public FrozenDictionary(File dictFile) {
+		this(dictFile, DictionaryFormat.TEXT);
+	}
+
+	/**
+	 * @param dictFile the dictionary file
+	 * @param format the format the file is written in, if it is written
+	 */
+	public FrozenDictionary(File dictFile, DictionaryFormat format) {
+		file = dictFile;
+		this.format = format;
+	}
+
+	/**
+	 * Create a frozen dictionary from sorted entries, which have not been saved to the file.
+	 */
+	FrozenDictionary(File dictFile, DictionaryFormat format, SortedMap<String, String> entries, boolean unsaved) {
+		this(dictFile, format);
+		pack(entries);
+		this.unsaved = unsaved;
+	}
+
+	@Override
+	public void open() throws IOException {
+		File source = DictionaryFiles.verified(file);
+		SortedEntries entries = ParallelTextLoader.load(source);
+		if (entries != null) {
+			pack(entries);
+		} else {
+			final List<String> keys = new ArrayList<String>();
+			final List<String> values = new ArrayList<String>();
+			DictionaryFiles.readVerified(source, new DictionaryFiles.EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) {
+					keys.add(key);
+					values.add(value);
+					return true;
+				}
+			});
+			boolean sorted = true;
+			for (int i = 1; i < keys.size() && sorted; ++i) {
+				sorted = keys.get(i - 1).compareTo(keys.get(i)) < 0;
+			}
+			if (sorted) {
+				pack(new SortedEntries(keys.toArray(new String[0]), values.toArray(new String[0]), keys.size()));
+			} else {
+				//not written by a dictionary; sort it (later entries override earlier ones)
+				TreeMap<String, String> map = new TreeMap<String, String>();
+				for (int i = 0; i < keys.size(); ++i) {
+					map.put(keys.get(i), values.get(i));
+				}
+				keys.clear();
+				values.clear();
+				pack(map);
+			}
+		}
+		unsaved = false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!unsaved && file.exists()) {
+			return;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.EntryWriter writer = DictionaryFiles.writer(temp, format);
+		try {
+			for (int i = 0; i < size; ++i) {
+				writer.write(keyAt(i), valueAt(i));
+			}
+		} finally {
+			writer.close();
+		}
+		DictionaryFiles.commit(temp, file);
+		unsaved = false;
+	}
+
+	/**
+	 * @return a mutable dictionary over the same file, with the same contents
+	 */
+	public InMemoryDictionary thaw() {
+		String[] keys = new String[size];
+		String[] values = new String[size];
+		for (int i = 0; i < size; ++i) {
+			keys[i] = keyAt(i);
+			values[i] = valueAt(i);
+		}
+		InMemoryDictionary dict = new InMemoryDictionary(file, format);
+		//an empty tree is built from sorted entries in linear time
+		dict.putAll(new SortedEntries(keys, values, size));
+		if (!unsaved) {
+			dict.resetModifications();
+		}
+		return dict;
+	}
+
+	@Override
+	public String get(Object key) {
+		int i = lowerBound((String) key);
+		return i < size && compareKey(i, (String) key) == 0 ? valueAt(i) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int i = lowerBound((String) key);
+		return i < size && compareKey(i, (String) key) == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		throw new UnsupportedOperationException("A frozen dictionary can not be changed");
+	}
+
+	@Override
+	public String remove(Object key) {
+		throw new UnsupportedOperationException("A frozen dictionary can not be changed");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("A frozen dictionary can not be changed");
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends String> map) {
+		throw new UnsupportedOperationException("A frozen dictionary can not be changed");
+	}
+
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		int start = lowerBound(from);
+		int end = to == null ? size : lowerBound(to);
+		return IntStream.range(start, Math.max(start, end))
+				.mapToObj(i -> new AbstractMap.SimpleImmutableEntry<String, String>(keyAt(i), valueAt(i)));
+	}
+
+	/*======= Packed storage ======*/
+
+	private void pack(SortedMap<String, String> entries) {
+		int n = entries.size();
+		long keyLength = 0, valueLength = 0;
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			keyLength += entry.getKey().length();
+			valueLength += entry.getValue().length();
+		}
+		if (keyLength > Integer.MAX_VALUE || valueLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many characters for a frozen dictionary");
+		}
+
+		keyChars = new char[(int) keyLength];
+		keyOffsets = new int[n + 1];
+		valueChars = new char[(int) valueLength];
+		valueOffsets = new int[n + 1];
+		int i = 0;
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			String key = entry.getKey(), value = entry.getValue();
+			key.getChars(0, key.length(), keyChars, keyOffsets[i]);
+			keyOffsets[i + 1] = keyOffsets[i] + key.length();
+			value.getChars(0, value.length(), valueChars, valueOffsets[i]);
+			valueOffsets[i + 1] = valueOffsets[i] + value.length();
+			i++;
+		}
+		size = n;
+
+		eytzinger = new int[n + 1];
+		fillEytzinger(1, 0);
+	}
+
+	/**
+	 * Assign ranks to the subtree rooted at node k in in-order, so that searching the tree visits keys in sorted order.
+	 * @return the next rank to assign
+	 */
+	private int fillEytzinger(int k, int rank) {
+		if (k <= size) {
+			rank = fillEytzinger(2 * k, rank);
+			eytzinger[k] = rank++;
+			rank = fillEytzinger(2 * k + 1, rank);
+		}
+		return rank;
+	}
+
+	/**
+	 * @return the rank of the first key that is not less than <i>key</i>, or size if there is none
+	 */
+	private int lowerBound(String key) {
+		int k = 1;
+		while (k <= size) {
+			k = 2 * k + (compareKey(eytzinger[k], key) < 0 ? 1 : 0);
+		}
+		//undo the right turns taken after the last left turn; that left turn was at the answer
+		k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+		return k == 0 ? size : eytzinger[k];
+	}
+
+	/**
+	 * Compare the key of rank i with a string, in {@link String#compareTo(String)} order, without creating a string.
+	 */
+	private int compareKey(int i, String key) {
+		int start = keyOffsets[i];
+		int length = keyOffsets[i + 1] - start;
+		int n = Math.min(length, key.length());
+		for (int j = 0; j < n; ++j) {
+			char c = keyChars[start + j];
+			char d = key.charAt(j);
+			if (c != d) {
+				return c - d;
+			}
+		}
+		return length - key.length();
+	}
+
+	private String keyAt(int i) {
+		return new String(keyChars, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i]);
+	}
+
+	private String valueAt(int i) {
+		return new String(valueChars, valueOffsets[i], valueOffsets[i + 1] - valueOffsets[i]);
+	}
+}
@@ -1,19 +1,47 @@
 package dict;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 
 /**
  * Implements a persistent dictionary that can be held entirely in memory.
- * When flushed, it writes the entire dictionary back to a file.
+ * When flushed, it writes the entire dictionary back to a file, but only if it changed since it was opened.
  * 
  * The file format has one keyword per line:
  * <pre>word:def1:def2:def3,...</pre>
  * 
  * Note that an empty definition list is allowed (in which case the entry would have the form: <pre>word:</pre> 
  * 
+ * The dictionary can also be stored in one of the binary formats of {@link DictionaryFormat};
+ * {@link #open()} detects the format of the file, and {@link #close()} writes the format given to the constructor.
+ * 
+ * {@link #snapshot()} returns a read-only view of the dictionary in constant time; {@link #close()} writes the file
+ * from one, so the dictionary can keep changing while it is written. Snapshots see the dictionary as it was when
+ * they were taken: every change goes through {@link #put(String, String)}, {@link #remove(Object)} or {@link #clear()},
+ * which synchronize on the dictionary as the snapshots do. The other {@link TreeMap} mutators are expressed through
+ * them, and the views ({@link #entrySet()}, {@link #keySet()}, {@link #values()} and the sub-maps) are read-only,
+ * so no change escapes {@link #close()} or the snapshots. While snapshots are in use, the first change to each key
+ * saves its old value for them, which costs O(log n) per snapshot version; only {@link #clear()} and {@link #open()} copy
+ * the whole dictionary for the snapshots still in use, in linear time.
+ * {@link #flush()} writes a snapshot in the background.
+ * 
  * @author talm
  *
  */
@@ -21,14 +49,45 @@ public class InMemoryDictionary extends TreeMap<String,String> implements Persis
 	private static final long serialVersionUID = 1L; // (because we're extending a serializable class)
 
 	//constructor
-	private File file;
+	File file;
+	private final DictionaryFormat format;
+	// number of changes since the last open(); the file is only rewritten if it has not been saved at this count
+	private transient int modifications;
+	// the modification count of the contents last written to the file (set by background flushes)
+	private transient volatile int savedVersion;
+	private transient CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+	// the version shared by snapshots taken since the last change, if any of them are still in use
+	private transient WeakReference<DictionarySnapshot.Version> unchanged;
+	// the versions of all the snapshots that may still be in use, which writers save old values for
+	private transient List<WeakReference<DictionarySnapshot.Version>> versions = new ArrayList<WeakReference<DictionarySnapshot.Version>>();
 	public InMemoryDictionary(File dictFile) {
+		this(dictFile, DictionaryFormat.TEXT);
+	}
+
+	/**
+	 * @param dictFile the dictionary file
+	 * @param format the format {@link #close()} writes the file in
+	 */
+	public InMemoryDictionary(File dictFile, DictionaryFormat format) {
 		file = dictFile;
+		this.format = format;
 	}
 
 
 	@Override
 	public void open() throws IOException {
+		open(false);
+	}
+
+	/**
+	 * Open the dictionary like {@link #open()}, but fail if the file can not be read,
+	 * instead of opening an empty dictionary that would be written over the file on the next change.
+	 */
+	void openStrict() throws IOException {
+		open(true);
+	}
+
+	private void open(boolean strict) throws IOException {
 		//check if the file opens
 		if (!file.exists()){
 			if (!file.createNewFile()){
@@ -36,59 +95,408 @@ public class InMemoryDictionary extends TreeMap<String,String> implements Persis
 			}
 		}
 
-		BufferedReader reader = null;
-		//initialize 3 string for the word, definition, and line to read from the file
-		String def = "", word = "", line = "";
-		int i;
+		//undo any changes since the last close
+		awaitFlush();
+		synchronized (this) {
+			detachSnapshots();
+			super.clear();
+		}
 		try {
-			//try opening the BufferedReader
-			reader = new BufferedReader( new FileReader(file));
-
-			//run a loop on all the lines in the file
-			while((line = reader.readLine()) != null){
-				//for each line find the ':' character and split it there
-				i = line.indexOf(':');
-				//spiting the line
-				word = line.substring(0,i);
-				def = line.substring(i+1);
-				this.put(word, def);
-				//initializing for a case that definition will be empty
-				word = "";
-				def = "";
+			File source = DictionaryFiles.verified(file);
+			//large text files are parsed on all processors and bulk-loaded into the (empty) tree
+			SortedEntries entries = ParallelTextLoader.load(source);
+			if (entries != null) {
+				super.putAll(entries);
+			} else {
+				DictionaryFiles.readVerified(source, this);
 			}
 		} catch (IOException e) {
+			if (strict) {
+				super.clear();
+				throw e;
+			}
 			//print err message to system.err
 			System.err.println("Error: " + e);
-		} finally {
-			if (reader != null) reader.close();
 		}
+		modifications = 0;
+		savedVersion = 0;
 	}
 
 	@Override
 	public void close() throws IOException {
-		BufferedWriter writer = null;
-		//initialize 3 string for the word, definition, and line to read from the file
-		String def = "";
 		try {
-			//try to open a BufferedWriter to write to the file
-			writer = new BufferedWriter(new FileWriter(file));
-
-			//run a loop to write all the lines in the map to a file
-			for(String word : this.keySet()){
-				def = this.get(word);
-				//output to the file the full line with the ':' char
-				writer.write(word + ":" + def);
-				//enter a new line character
-				writer.newLine();
-				//flush the writer
-				writer.flush();
-			}
+			saveChanges();
 		} catch (IOException e) {
 			//print err message to system.err
 			System.err.println("Error: " + e);
-		} finally {
-			if (writer != null) writer.close();
 		}
 	}
-	
+
+	/**
+	 * Write the dictionary file if it changed since it was last written, like {@link #close()},
+	 * but report a failed write to the caller.
+	 */
+	void saveChanges() throws IOException {
+		awaitFlush();
+		//nothing changed since the file was written, so it is still up to date
+		if (modifications == savedVersion && file.exists()) {
+			return;
+		}
+		save(modifications, snapshot());
+	}
+
+	/**
+	 * Write a snapshot of the dictionary in the background; the dictionary can be used while it is written.
+	 * Flushes of the same dictionary are written one after the other.
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		if (modifications == savedVersion && file.exists()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final int version = modifications;
+		final DictionarySnapshot snapshot = snapshot();
+		lastFlush = DictionaryFiles.writeAfter(lastFlush, () -> save(version, snapshot));
+		return lastFlush;
+	}
+
+	/**
+	 * Write a snapshot to a temporary file and move it over the old one,
+	 * so a failed write or a crash never leaves a half-written dictionary behind.
+	 * @param version the modification count the snapshot was taken at; changes made after it still count
+	 */
+	private void save(int version, DictionarySnapshot snapshot) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.write(temp, snapshot, format);
+		DictionaryFiles.commit(temp, file);
+		savedVersion = version;
+	}
+
+	/**
+	 * Wait for a background flush to finish, so it does not write over the file later.
+	 */
+	void awaitFlush() {
+		CompletableFuture<Void> flush;
+		synchronized (this) {
+			flush = lastFlush;
+		}
+		DictionaryFiles.await(flush);
+	}
+
+	@Override
+	public synchronized String put(String key, String value) {
+		beforeWrite(key);
+		String old = super.put(key, value);
+		if (old == null || !old.equals(value)) {
+			modifications++;
+		}
+		return old;
+	}
+
+	@Override
+	public synchronized void putAll(Map<? extends String, ? extends String> map) {
+		if (map.isEmpty()) {
+			return;
+		}
+		for (String key : map.keySet()) {
+			beforeWrite(key);
+		}
+		modifications++;
+		super.putAll(map);
+	}
+
+	@Override
+	public synchronized String remove(Object key) {
+		beforeWrite(key);
+		String old = super.remove(key);
+		if (old != null) {
+			modifications++;
+		}
+		return old;
+	}
+
+	@Override
+	public synchronized void clear() {
+		detachSnapshots();
+		modifications++;
+		super.clear();
+	}
+
+	/*======= The other TreeMap mutators, expressed through the ones above so every change is counted ======*/
+
+	@Override
+	public synchronized String putIfAbsent(String key, String value) {
+		String old = get(key);
+		return old == null ? put(key, value) : old;
+	}
+
+	@Override
+	public synchronized boolean remove(Object key, Object value) {
+		if (!containsKey(key) || !Objects.equals(get(key), value)) {
+			return false;
+		}
+		remove(key);
+		return true;
+	}
+
+	@Override
+	public synchronized String replace(String key, String value) {
+		return containsKey(key) ? put(key, value) : null;
+	}
+
+	@Override
+	public synchronized boolean replace(String key, String oldValue, String newValue) {
+		if (!containsKey(key) || !Objects.equals(get(key), oldValue)) {
+			return false;
+		}
+		put(key, newValue);
+		return true;
+	}
+
+	@Override
+	public synchronized String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction) {
+		String old = get(key);
+		if (old != null) {
+			return old;
+		}
+		String value = mappingFunction.apply(key);
+		if (value != null) {
+			put(key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized String computeIfPresent(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+		String old = get(key);
+		if (old == null) {
+			return null;
+		}
+		String value = remappingFunction.apply(key, old);
+		if (value == null) {
+			remove(key);
+		} else {
+			put(key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized String compute(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+		String old = get(key);
+		String value = remappingFunction.apply(key, old);
+		if (value != null) {
+			put(key, value);
+		} else if (old != null || containsKey(key)) {
+			remove(key);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized String merge(String key, String value, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+		Objects.requireNonNull(value);
+		String old = get(key);
+		String merged = old == null ? value : remappingFunction.apply(old, value);
+		if (merged == null) {
+			remove(key);
+		} else {
+			put(key, merged);
+		}
+		return merged;
+	}
+
+	@Override
+	public synchronized void replaceAll(BiFunction<? super String, ? super String, ? extends String> function) {
+		for (String key : new ArrayList<String>(super.navigableKeySet())) {
+			put(key, function.apply(key, super.get(key)));
+		}
+	}
+
+	@Override
+	public synchronized Map.Entry<String, String> pollFirstEntry() {
+		Map.Entry<String, String> first = firstEntry();
+		if (first != null) {
+			remove(first.getKey());
+		}
+		return first;
+	}
+
+	@Override
+	public synchronized Map.Entry<String, String> pollLastEntry() {
+		Map.Entry<String, String> last = lastEntry();
+		if (last != null) {
+			remove(last.getKey());
+		}
+		return last;
+	}
+
+	/*======= The views are read-only: changes through them would not be counted or seen by snapshots ======*/
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		final Set<Map.Entry<String, String>> entries = super.entrySet();
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				final Iterator<Map.Entry<String, String>> it = entries.iterator();
+				return new Iterator<Map.Entry<String, String>>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						return Keys.readOnly(it.next());
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return entries.contains(o);
+			}
+
+			@Override
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+
+	/**
+	 * Also the view behind {@link #keySet()} and {@link #descendingKeySet()}.
+	 */
+	@Override
+	public NavigableSet<String> navigableKeySet() {
+		return Collections.unmodifiableNavigableSet(super.navigableKeySet());
+	}
+
+	@Override
+	public Collection<String> values() {
+		return Collections.unmodifiableCollection(super.values());
+	}
+
+	@Override
+	public NavigableMap<String, String> descendingMap() {
+		return Collections.unmodifiableNavigableMap(super.descendingMap());
+	}
+
+	/**
+	 * Also the view behind {@link #headMap(String)}; likewise for the other sub-maps.
+	 */
+	@Override
+	public NavigableMap<String, String> headMap(String toKey, boolean inclusive) {
+		return Collections.unmodifiableNavigableMap(super.headMap(toKey, inclusive));
+	}
+
+	@Override
+	public NavigableMap<String, String> tailMap(String fromKey, boolean inclusive) {
+		return Collections.unmodifiableNavigableMap(super.tailMap(fromKey, inclusive));
+	}
+
+	@Override
+	public NavigableMap<String, String> subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+		return Collections.unmodifiableNavigableMap(super.subMap(fromKey, fromInclusive, toKey, toInclusive));
+	}
+
+	/**
+	 * The live entries, for subclasses that load entries without counting them as changes.
+	 */
+	Set<Map.Entry<String, String>> loadedEntries() {
+		return super.entrySet();
+	}
+
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		return Keys.range(this, from, to);
+	}
+
+	/**
+	 * @return a read-only view of the dictionary as it is now, which does not change when the dictionary does.
+	 * Takes constant time; nothing is copied until the dictionary changes, and then only the old value of each
+	 * changed key (once for all the snapshots taken between two changes).
+	 */
+	public synchronized DictionarySnapshot snapshot() {
+		DictionarySnapshot.Version version = unchanged == null ? null : unchanged.get();
+		if (version == null) {
+			version = new DictionarySnapshot.Version();
+			unchanged = new WeakReference<DictionarySnapshot.Version>(version);
+			versions.add(unchanged);
+		}
+		return new DictionarySnapshot(this, version, size());
+	}
+
+	/**
+	 * Save the value a key has now for the snapshots that have not seen it change yet
+	 * (and forget the snapshots that are no longer in use).
+	 * Must be called while holding the lock, since the snapshots read the live entries under it.
+	 */
+	private void beforeWrite(Object key) {
+		unchanged = null;
+		for (Iterator<WeakReference<DictionarySnapshot.Version>> it = versions.iterator(); it.hasNext();) {
+			DictionarySnapshot.Version version = it.next().get();
+			if (version == null) {
+				it.remove();
+			} else if (!version.changed.containsKey(key)) {
+				version.changed.put((String) key, super.get(key));
+			}
+		}
+	}
+
+	/**
+	 * Hand every snapshot still in use a copy of its entries, before all of the entries change.
+	 * Must be called while holding the lock.
+	 */
+	private void detachSnapshots() {
+		unchanged = null;
+		for (WeakReference<DictionarySnapshot.Version> ref : versions) {
+			DictionarySnapshot.Version version = ref.get();
+			if (version != null) {
+				//built from a sorted map, so in linear time
+				TreeMap<String, String> copy = new TreeMap<String, String>(this);
+				for (Map.Entry<String, String> old : version.changed.entrySet()) {
+					if (old.getValue() == null) {
+						copy.remove(old.getKey());
+					} else {
+						copy.put(old.getKey(), old.getValue());
+					}
+				}
+				version.copy = copy;
+				version.changed.clear();
+			}
+		}
+		versions.clear();
+	}
+
+	/**
+	 * Look up a key in the live entries, without the checks subclasses add to {@link #get(Object)}.
+	 */
+	String peek(Object key) {
+		return super.get(key);
+	}
+
+	/**
+	 * @return an immutable, compact copy of this dictionary, over the same file.
+	 * Changes not yet written to the file are written when the frozen dictionary is closed.
+	 */
+	public FrozenDictionary freeze() {
+		return new FrozenDictionary(file, format, this, modifications != savedVersion || !file.exists());
+	}
+
+	/**
+	 * Add an entry read from the file without counting it as a change.
+	 */
+	void loadEntry(String word, String def) {
+		super.put(word, def);
+	}
+
+	/**
+	 * Mark the contents as identical to the file.
+	 */
+	void resetModifications() {
+		savedVersion = modifications;
+	}
+
 }
@@ -0,0 +1,123 @@
+package dict;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helpers for working with ranges of dictionary keys, in {@link String#compareTo(String)} order.
+ *
+ * @author talm
+ *
+ */
+final class Keys {
+
+	private Keys() {
+	}
+
+	/**
+	 * @return the smallest string that is greater than every string starting with <i>prefix</i>,
+	 * or null if there is no such string (the prefix is empty or consists only of U+FFFF characters).
+	 */
+	static String prefixEnd(String prefix) {
+		for (int i = prefix.length() - 1; i >= 0; --i) {
+			char c = prefix.charAt(i);
+			if (c != Character.MAX_VALUE) {
+				return prefix.substring(0, i) + (char) (c + 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if from &lt;= key &lt; to, where a null <i>to</i> has no upper bound.
+	 */
+	static boolean inRange(String key, String from, String to) {
+		return key.compareTo(from) >= 0 && (to == null || key.compareTo(to) < 0);
+	}
+
+	/**
+	 * Stream the entries of a sorted map in the range [from, to), as read-only entries.
+	 * @param to the exclusive upper bound, or null for no upper bound
+	 */
+	static Stream<Map.Entry<String, String>> range(NavigableMap<String, String> map, String from, String to) {
+		NavigableMap<String, String> sub;
+		if (to == null) {
+			sub = map.tailMap(from, true);
+		} else if (from.compareTo(to) < 0) {
+			sub = map.subMap(from, true, to, false);
+		} else {
+			return Stream.empty();
+		}
+		return sub.entrySet().stream().map(Keys::readOnly);
+	}
+
+	static Map.Entry<String, String> readOnly(Map.Entry<String, String> entry) {
+		return new AbstractMap.SimpleImmutableEntry<String, String>(entry);
+	}
+
+	/**
+	 * Merge streams of entries that are each sorted by key, and whose keys are disjoint, into one sorted stream.
+	 */
+	static Stream<Map.Entry<String, String>> merge(List<Stream<Map.Entry<String, String>>> streams) {
+		final PriorityQueue<Source> heads = new PriorityQueue<Source>(Math.max(1, streams.size()));
+		for (Stream<Map.Entry<String, String>> stream : streams) {
+			Source source = new Source(stream.iterator());
+			if (source.advance()) {
+				heads.add(source);
+			}
+		}
+		Iterator<Map.Entry<String, String>> merged = new Iterator<Map.Entry<String, String>>() {
+			@Override
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public Map.Entry<String, String> next() {
+				Source source = heads.poll();
+				if (source == null) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<String, String> entry = source.head;
+				if (source.advance()) {
+					heads.add(source);
+				}
+				return entry;
+			}
+		};
+		Stream<Map.Entry<String, String>> result = StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+		for (Stream<Map.Entry<String, String>> stream : streams) {
+			result = result.onClose(stream::close);
+		}
+		return result;
+	}
+
+	private static final class Source implements Comparable<Source> {
+		final Iterator<Map.Entry<String, String>> entries;
+		Map.Entry<String, String> head;
+
+		Source(Iterator<Map.Entry<String, String>> entries) {
+			this.entries = entries;
+		}
+
+		boolean advance() {
+			head = entries.hasNext() ? entries.next() : null;
+			return head != null;
+		}
+
+		@Override
+		public int compareTo(Source other) {
+			return head.getKey().compareTo(other.head.getKey());
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package dict;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * An {@link InMemoryDictionary} whose {@link #open()} returns immediately.
+ * The file is streamed into memory by a background thread, and an operation on a key
+ * that has not been loaded yet waits only until the loader gets past that key.
+ *
+ * This relies on the file being sorted by key, which is how {@link InMemoryDictionary#close()} writes it
+ * (in any {@link DictionaryFormat}).
+ * If the loader finds a key out of order, lookups from then on wait for the whole file to load.
+ * Operations that depend on the whole dictionary ({@link #size()}, {@link #close()}) also wait for the whole file.
+ *
+ * Only the {@link PersistentDictionary} methods wait for the loader; the other {@link java.util.TreeMap}
+ * views should not be used while the dictionary is loading.
+ *
+ * The checksum of the file is checked as it is loaded rather than before (see
+ * {@link DictionaryFiles#readChecked(File, DictionaryFiles.EntryHandler)}), so the first lookups do not wait
+ * for a pass over the whole file. If the file turns out to be corrupt, the loaded entries are dropped and the
+ * previous generation is restored over it and loaded instead; lookups answered before then saw the entries of the
+ * corrupt file.
+ *
+ * @author talm
+ *
+ */
+public class LazyInMemoryDictionary extends InMemoryDictionary {
+	private static final long serialVersionUID = 1L;
+
+	private static final int BATCH = 1024; // number of lines parsed between lock acquisitions
+
+	private transient Thread loader;
+	private boolean loading;
+	private boolean sorted;
+	private String loadedUpTo;
+	private int waiters;
+	// keys that were changed while loading, so the loader must not overwrite them
+	private final HashSet<String> touched = new HashSet<String>();
+
+	public LazyInMemoryDictionary(File dictFile) {
+		super(dictFile);
+	}
+
+	@Override
+	public void open() throws IOException {
+		awaitLoader();
+		awaitFlush();
+		//check if the file opens
+		if (!file.exists()){
+			if (!file.createNewFile()){
+				throw new IOException("New file can not be created.");
+			}
+		}
+
+		synchronized (this) {
+			super.clear();
+			resetModifications();
+			touched.clear();
+			loading = true;
+			sorted = true;
+			loadedUpTo = null;
+		}
+		loader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		}, "dictionary-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		awaitLoader();
+		super.close();
+	}
+
+	@Override
+	public synchronized String get(Object key) {
+		awaitKey((String) key);
+		return super.get(key);
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		awaitKey((String) key);
+		return super.containsKey(key);
+	}
+
+	@Override
+	public synchronized String put(String key, String value) {
+		awaitKey(key);
+		if (loading) {
+			touched.add(key);
+		}
+		return super.put(key, value);
+	}
+
+	@Override
+	public synchronized String remove(Object key) {
+		awaitKey((String) key);
+		if (loading) {
+			touched.add((String) key);
+		}
+		return super.remove(key);
+	}
+
+	@Override
+	public synchronized int size() {
+		awaitKey(null);
+		return super.size();
+	}
+
+	@Override
+	public synchronized void clear() {
+		//nothing the loader could still read matters anymore
+		loading = false;
+		touched.clear();
+		super.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Waits once, until the loader has gone past the greatest of the keys.
+	 */
+	@Override
+	public synchronized Map<String, String> getAll(Collection<String> keys) {
+		if (!keys.isEmpty()) {
+			awaitKey(Collections.max(keys));
+		}
+		return super.getAll(keys);
+	}
+
+	@Override
+	public synchronized void putAll(Map<? extends String, ? extends String> map) {
+		if (!map.isEmpty()) {
+			awaitKey(Collections.max(map.keySet()));
+		}
+		if (loading) {
+			touched.addAll(map.keySet());
+		}
+		super.putAll(map);
+	}
+
+	/**
+	 * Waits only until the loader has gone past <i>to</i>; the entries are copied,
+	 * because the loader keeps changing the map.
+	 */
+	@Override
+	public synchronized Stream<Map.Entry<String, String>> range(String from, String to) {
+		awaitKey(to);
+		return super.range(from, to).collect(Collectors.toList()).stream();
+	}
+
+	/**
+	 * Waits for the whole file, since the snapshot reads the map directly.
+	 */
+	@Override
+	public synchronized DictionarySnapshot snapshot() {
+		awaitKey(null);
+		return super.snapshot();
+	}
+
+	/**
+	 * Background loop: stream the file in batches and add them to the map under the lock,
+	 * waking up callers that wait for keys in the batch.
+	 */
+	private void load() {
+		try {
+			BatchLoader batches = new BatchLoader();
+			boolean intact = DictionaryFiles.readChecked(file, batches);
+			batches.flush();
+			if (!intact && restart()) {
+				DictionaryFiles.readVerified(DictionaryFiles.restorePrevious(file), batches);
+				batches.flush();
+			}
+		} catch (IOException e) {
+			//print err message to system.err
+			System.err.println("Error: " + e);
+		} finally {
+			synchronized (this) {
+				loading = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private class BatchLoader implements DictionaryFiles.EntryHandler {
+		private final String[] words = new String[BATCH];
+		private final String[] defs = new String[BATCH];
+		private int n;
+
+		@Override
+		public boolean entry(String key, String value) {
+			words[n] = key;
+			defs[n] = value;
+			return ++n < BATCH || flush();
+		}
+
+		boolean flush() {
+			boolean more = addBatch(words, defs, n);
+			n = 0;
+			return more;
+		}
+	}
+
+	/**
+	 * Drop the entries loaded from a corrupt file (but not the ones changed since) and start loading over.
+	 * @return false if loading was cancelled by {@link #clear()}
+	 */
+	private synchronized boolean restart() {
+		if (!loading) {
+			return false;
+		}
+		loadedEntries().removeIf(entry -> !touched.contains(entry.getKey()));
+		sorted = true;
+		loadedUpTo = null;
+		return true;
+	}
+
+	/**
+	 * @return false if loading was cancelled by {@link #clear()}
+	 */
+	private synchronized boolean addBatch(String[] words, String[] defs, int n) {
+		if (!loading) {
+			return false;
+		}
+		for (int i = 0; i < n; ++i) {
+			if (!touched.contains(words[i])) {
+				loadEntry(words[i], defs[i]);
+			}
+			if (loadedUpTo != null && words[i].compareTo(loadedUpTo) < 0) {
+				sorted = false;
+			}
+			loadedUpTo = words[i];
+		}
+		if (waiters > 0) {
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until the loader has gone past <i>key</i> (or until it is done, if <i>key</i> is null).
+	 * Must be called while holding the lock.
+	 */
+	private void awaitKey(String key) {
+		boolean interrupted = false;
+		waiters++;
+		while (loading && (key == null || !sorted || loadedUpTo == null || loadedUpTo.compareTo(key) <= 0)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				//a partial answer would be wrong, so keep waiting and restore the flag afterwards
+				interrupted = true;
+			}
+		}
+		waiters--;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void awaitLoader() throws IOException {
+		Thread current = loader;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading " + file);
+		}
+		loader = null;
+	}
+}
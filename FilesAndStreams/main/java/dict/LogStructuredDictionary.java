@@ -0,0 +1,494 @@
+package dict;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Implements a persistent dictionary that is held in memory but persisted through
+ * an append-only write-ahead log instead of rewriting the whole file.
+ *
+ * The dictionary file itself is a snapshot in the same text format used by {@link InMemoryDictionary}.
+ * Every {@link #put(String, String)}, {@link #remove(Object)} and {@link #clear()} appends a compact
+ * record to a log file next to it (<pre>dictFile.log</pre>), and {@link #open()} replays the log over the snapshot.
+ * The cost of {@link #close()} therefore depends on how much changed rather than on the size of the dictionary.
+ *
+ * Once the log grows past a size threshold it is rotated and a new snapshot is written by a background thread.
+ * Replaying a log over a snapshot that already contains its changes is harmless, so a crash at any point
+ * of the compaction leaves a recoverable set of files; {@link #open()} finishes an interrupted (or failed)
+ * compaction by writing the snapshot itself.
+ *
+ * Records are buffered, and the log is synced to disk by {@link #close()} and {@link #flush()}.
+ * In group-commit mode, a background thread syncs the log every few milliseconds (or as soon as enough records are
+ * waiting), so the changes of many writers share a single sync, and {@link #flush()} completes with the next
+ * group commit. All methods are synchronized, so the dictionary can be shared by many threads.
+ *
+ * Each log record is an operation byte followed by length-prefixed UTF-8 strings:
+ * <pre>'P' keyLen key valueLen value | 'R' keyLen key | 'C'</pre>
+ *
+ * @author talm
+ *
+ */
+public class LogStructuredDictionary implements PersistentDictionary {
+
+	/** Default log size (in bytes) after which a new snapshot is written. */
+	public static final long DEFAULT_COMPACT_THRESHOLD = 64L * 1024 * 1024;
+
+	private static final byte OP_PUT = 'P';
+	private static final byte OP_REMOVE = 'R';
+	private static final byte OP_CLEAR = 'C';
+
+	private final File file;
+	private final File logFile;
+	private final File oldLogFile;
+	private final long compactThreshold;
+	private final long commitInterval;
+	private final int commitRecords;
+
+	private final TreeMap<String, String> map = new TreeMap<String, String>();
+	private FileOutputStream logOut;
+	private DataOutputStream log;
+	private long logSize;
+	private Thread compactor;
+
+	// group commit: records appended and flushes requested since the last sync
+	private int pendingRecords;
+	private List<CompletableFuture<Void>> waiting = new ArrayList<CompletableFuture<Void>>();
+	private Thread committer;
+	private boolean stopCommitter;
+
+	public LogStructuredDictionary(File dictFile) {
+		this(dictFile, DEFAULT_COMPACT_THRESHOLD);
+	}
+
+	/**
+	 * @param dictFile the snapshot file; the log is kept next to it
+	 * @param compactThreshold the log size (in bytes) after which a new snapshot is written in the background
+	 */
+	public LogStructuredDictionary(File dictFile, long compactThreshold) {
+		this(dictFile, compactThreshold, 0, 0);
+	}
+
+	/**
+	 * Create a dictionary in group-commit mode.
+	 * @param dictFile the snapshot file; the log is kept next to it
+	 * @param compactThreshold the log size (in bytes) after which a new snapshot is written in the background
+	 * @param commitInterval the longest time (in milliseconds) a change waits to be synced, or 0 for no group commit
+	 * @param commitRecords the number of waiting records that triggers a sync before the interval is up, or 0 for no limit
+	 */
+	public LogStructuredDictionary(File dictFile, long compactThreshold, long commitInterval, int commitRecords) {
+		file = dictFile;
+		logFile = new File(dictFile.getPath() + ".log");
+		oldLogFile = new File(dictFile.getPath() + ".log.old");
+		this.compactThreshold = compactThreshold;
+		this.commitInterval = commitInterval;
+		this.commitRecords = commitRecords;
+	}
+
+	@Override
+	public void open() throws IOException {
+		closeLog();
+		awaitCompaction();
+		synchronized (this) {
+			map.clear();
+
+			//logs always belong to an existing snapshot; without one they are left over from a deleted dictionary
+			if (!file.exists()) {
+				logFile.delete();
+				oldLogFile.delete();
+				return;
+			}
+			DictionaryFiles.read(file, map);
+			//a rotated log exists only if we crashed before its compaction finished (or it failed)
+			if (oldLogFile.exists()) {
+				replay(oldLogFile);
+				replay(logFile);
+				//finish the compaction, since another one can not start while the rotated log exists
+				writeSnapshot(map);
+				//the older log goes first: replaying the newer one alone over the snapshot is still harmless
+				oldLogFile.delete();
+				logFile.delete();
+			} else {
+				replay(logFile);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		stopCommitter();
+		closeLog();
+		awaitCompaction();
+	}
+
+	/**
+	 * Sync the log. In group-commit mode the sync is left to the next group commit.
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		if (log == null) {
+			//closing the log synced it
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		if (commitInterval > 0) {
+			waiting.add(done);
+			startCommitter();
+			notifyAll();
+			return done;
+		}
+		try {
+			log.flush();
+			logOut.getChannel().force(false);
+			done.complete(null);
+		} catch (IOException e) {
+			done.completeExceptionally(e);
+		}
+		return done;
+	}
+
+	@Override
+	public synchronized String get(Object key) {
+		return map.get(key);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is null, which the log can not record
+	 */
+	@Override
+	public synchronized String put(String key, String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values can not be stored in " + file);
+		}
+		String old = map.put(key, value);
+		append(OP_PUT, key, value);
+		return old;
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public synchronized int size() {
+		return map.size();
+	}
+
+	@Override
+	public synchronized String remove(Object key) {
+		//only log removals of keys that are actually there
+		if (!map.containsKey(key)) {
+			return null;
+		}
+		String old = map.remove(key);
+		append(OP_REMOVE, (String) key, null);
+		return old;
+	}
+
+	@Override
+	public synchronized void clear() {
+		map.clear();
+		append(OP_CLEAR, null, null);
+	}
+
+	/**
+	 * The entries are copied, since other threads may change the map while the stream is consumed.
+	 */
+	@Override
+	public synchronized Stream<Map.Entry<String, String>> range(String from, String to) {
+		return Keys.range(map, from, to).collect(Collectors.toList()).stream();
+	}
+
+	/**
+	 * Replay the records of a log file over the in-memory map.
+	 * A record cut short by a crash ends the log: the file is truncated back to the last complete record
+	 * so that new records are not appended after garbage.
+	 */
+	private void replay(File log) throws IOException {
+		if (!log.exists()) {
+			return;
+		}
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+		try {
+			while (true) {
+				int op = in.read();
+				if (op == -1) {
+					break;
+				}
+				long recordSize = 1;
+				if (op == OP_PUT) {
+					byte[] key = readBytes(in);
+					byte[] value = readBytes(in);
+					map.put(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+					recordSize += 8 + key.length + value.length;
+				} else if (op == OP_REMOVE) {
+					byte[] key = readBytes(in);
+					map.remove(new String(key, StandardCharsets.UTF_8));
+					recordSize += 4 + key.length;
+				} else if (op == OP_CLEAR) {
+					map.clear();
+				} else {
+					break;
+				}
+				valid += recordSize;
+			}
+		} catch (EOFException e) {
+			//torn record at the end of the log
+		} finally {
+			in.close();
+		}
+
+		if (valid < log.length()) {
+			RandomAccessFile raf = new RandomAccessFile(log, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Append a record to the log, opening it if needed, and start a compaction if the log got too big.
+	 */
+	private void append(byte op, String key, String value) {
+		try {
+			if (log == null) {
+				if (!file.exists() && !file.createNewFile()) {
+					throw new IOException("New file can not be created.");
+				}
+				logOut = new FileOutputStream(logFile, true);
+				log = new DataOutputStream(new BufferedOutputStream(logOut));
+				logSize = logFile.length();
+			}
+			log.write(op);
+			logSize++;
+			if (key != null) {
+				logSize += writeString(log, key);
+			}
+			if (value != null) {
+				logSize += writeString(log, value);
+			}
+			if (commitInterval > 0) {
+				pendingRecords++;
+				startCommitter();
+				if (commitRecords > 0 && pendingRecords >= commitRecords) {
+					notifyAll();
+				}
+			}
+			if (logSize >= compactThreshold && !compacting() && !oldLogFile.exists()) {
+				startCompaction();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Rotate the log and write a snapshot of the current contents in the background.
+	 * When the snapshot is in place, the rotated log is no longer needed.
+	 */
+	private void startCompaction() throws IOException {
+		closeLog();
+		if (!logFile.renameTo(oldLogFile)) {
+			throw new IOException("Log file " + logFile + " can not be rotated.");
+		}
+		final TreeMap<String, String> snapshot = new TreeMap<String, String>(map);
+		compactor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(snapshot);
+					oldLogFile.delete();
+				} catch (IOException e) {
+					//keep the rotated log; it will be replayed by the next open()
+					System.err.println("Error: " + e);
+				}
+			}
+		}, "dictionary-compactor");
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
+	/**
+	 * Write a snapshot over the dictionary file.
+	 */
+	private void writeSnapshot(Map<String, String> snapshot) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.write(temp, snapshot, DictionaryFormat.TEXT);
+		DictionaryFiles.commit(temp, file);
+	}
+
+	private boolean compacting() {
+		return compactor != null && compactor.isAlive();
+	}
+
+	/**
+	 * Wait for the background compaction, if any. The compactor is started under the lock, so it is read
+	 * and cleared under the lock too; the join itself runs without it, so writers are not blocked meanwhile.
+	 */
+	private void awaitCompaction() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			thread = compactor;
+		}
+		if (thread == null) {
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for compaction");
+		}
+		synchronized (this) {
+			//a write may have started a new compaction meanwhile
+			if (compactor == thread) {
+				compactor = null;
+			}
+		}
+	}
+
+	/**
+	 * Sync and close the log; everything waiting for a group commit is then durable.
+	 */
+	private synchronized void closeLog() throws IOException {
+		if (log != null) {
+			log.flush();
+			logOut.getFD().sync();
+			log.close();
+			log = null;
+			logOut = null;
+		}
+		pendingRecords = 0;
+		for (CompletableFuture<Void> done : waiting) {
+			done.complete(null);
+		}
+		waiting = new ArrayList<CompletableFuture<Void>>();
+	}
+
+	/*======= Group commit ======*/
+
+	private void startCommitter() {
+		if (committer != null) {
+			return;
+		}
+		stopCommitter = false;
+		committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		}, "dictionary-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	private void stopCommitter() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			thread = committer;
+			stopCommitter = true;
+			notifyAll();
+		}
+		if (thread == null) {
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while stopping the group commit");
+		}
+		synchronized (this) {
+			committer = null;
+		}
+	}
+
+	/**
+	 * Background loop: once something is waiting, sync the log when the interval is up or enough records wait.
+	 * The sync itself runs without the lock, so writers carry on while it is in progress.
+	 */
+	private void commitLoop() {
+		while (true) {
+			List<CompletableFuture<Void>> batch;
+			FileChannel channel = null;
+			synchronized (this) {
+				long deadline = 0;
+				while (!stopCommitter) {
+					boolean due = pendingRecords > 0 || !waiting.isEmpty();
+					long now = System.currentTimeMillis();
+					if (due && deadline == 0) {
+						deadline = now + commitInterval;
+					}
+					if (due && (now >= deadline || (commitRecords > 0 && pendingRecords >= commitRecords))) {
+						break;
+					}
+					try {
+						wait(due ? deadline - now : 0);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (stopCommitter) {
+					return;
+				}
+				batch = waiting;
+				waiting = new ArrayList<CompletableFuture<Void>>();
+				pendingRecords = 0;
+				try {
+					if (log != null) {
+						log.flush();
+						channel = logOut.getChannel();
+					}
+				} catch (IOException e) {
+					fail(batch, e);
+					continue;
+				}
+			}
+			try {
+				if (channel != null) {
+					channel.force(false);
+				}
+			} catch (ClosedChannelException e) {
+				//the log was closed meanwhile, and closing syncs it
+			} catch (IOException e) {
+				fail(batch, e);
+				continue;
+			}
+			for (CompletableFuture<Void> done : batch) {
+				done.complete(null);
+			}
+		}
+	}
+
+	private static void fail(List<CompletableFuture<Void>> batch, IOException e) {
+		for (CompletableFuture<Void> done : batch) {
+			done.completeExceptionally(e);
+		}
+	}
+
+	private static int writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		return 4 + bytes.length;
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,441 @@
+package dict;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Implements a persistent dictionary that stays on disk and is accessed through a memory mapping.
+ * {@link #open()} only maps the file, so it takes constant time and nothing is read into the heap
+ * until a key is looked up; lookups binary-search the sorted entries directly in the mapped bytes.
+ *
+ * Changes are kept in memory (new and replaced entries in a sorted overlay, removed keys in a tombstone set)
+ * and merged with the mapped entries into a new file when the dictionary is closed; if nothing changed,
+ * the file is left as it is.
+ *
+ * Optionally, a {@link BloomFilter} over the keys is kept next to the dictionary file (<pre>dictFile.bloom</pre>).
+ * It is checked before the overlay or the mapped file, so most lookups of missing keys touch neither.
+ * The filter is extended as entries are put, and rebuilt (sized for the new number of entries)
+ * whenever the dictionary file is rewritten. If the saved filter does not match the dictionary file,
+ * lookups go without it until the next {@link #close()}.
+ *
+ * The file format is (all numbers big-endian):
+ * <pre>
+ * magic:int version:int count:long
+ * offset[0..count):long          (absolute file offset of each entry)
+ * entry[0..count): keyLen:int key valueLen:int value   (UTF-8, sorted by key)
+ * </pre>
+ * followed by the checksum trailer of {@link DictionaryFiles#commit(File, File)}. The checksum is not
+ * verified by {@link #open()}, since that would read the whole file and defeat the constant-time open.
+ *
+ * @author talm
+ *
+ */
+public class MappedDictionary implements PersistentDictionary {
+	static final int MAGIC = 0x4D444958; // "MDIX"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+
+	private final File file;
+	private final File filterFile;
+	private final double falsePositiveRate;
+
+	private MappedFile base;
+	private BloomFilter filter;
+	private long baseCount;
+	private final TreeMap<String, String> overlay = new TreeMap<String, String>();
+	private final HashSet<String> removed = new HashSet<String>();
+	private long size;
+	// true if there are changes that are not in the mapped file
+	private boolean changed;
+
+	public MappedDictionary(File dictFile) {
+		this(dictFile, 0);
+	}
+
+	/**
+	 * @param dictFile the dictionary file
+	 * @param falsePositiveRate the false-positive rate of the Bloom filter over the keys, or 0 for no filter
+	 */
+	public MappedDictionary(File dictFile, double falsePositiveRate) {
+		file = dictFile;
+		filterFile = new File(dictFile.getPath() + ".bloom");
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	@Override
+	public void open() throws IOException {
+		overlay.clear();
+		removed.clear();
+		base = null;
+		baseCount = 0;
+		size = 0;
+		changed = false;
+		filter = null;
+
+		if (!file.exists() || file.length() == 0) {
+			filter = emptyFilter();
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			base = new MappedFile(raf.getChannel(), raf.length());
+		} finally {
+			raf.close();
+		}
+		if (base.length() < HEADER_SIZE || base.getInt(0) != MAGIC) {
+			base = null;
+			throw new IOException(file + " is not a mapped dictionary file.");
+		}
+		if (base.getInt(4) != VERSION) {
+			base = null;
+			throw new IOException("Unsupported mapped dictionary version in " + file);
+		}
+		baseCount = base.getLong(8);
+		size = baseCount;
+		if (falsePositiveRate > 0) {
+			filter = BloomFilter.read(filterFile, file);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (changed || !file.exists()) {
+			File temp = new File(file.getPath() + ".tmp");
+			BloomFilter newFilter = falsePositiveRate > 0 ? BloomFilter.create(size, falsePositiveRate) : null;
+			write(temp, newFilter);
+			DictionaryFiles.commit(temp, file);
+			if (newFilter != null) {
+				newFilter.write(filterFile, file);
+			}
+		} else if (falsePositiveRate > 0 && filter == null && base != null) {
+			//the file is up to date, but its saved filter was missing or stale
+			BloomFilter newFilter = BloomFilter.create(baseCount, falsePositiveRate);
+			for (long i = 0; i < baseCount; ++i) {
+				newFilter.add(keyAt(i));
+			}
+			newFilter.write(filterFile, file);
+		}
+		filter = null;
+		overlay.clear();
+		removed.clear();
+		base = null;
+		baseCount = 0;
+		size = 0;
+		changed = false;
+	}
+
+	@Override
+	public String get(Object key) {
+		String k = (String) key;
+		if (filter != null && !filter.mightContain(k)) {
+			return null;
+		}
+		String value = overlay.get(k);
+		if (value != null || base == null || removed.contains(k)) {
+			return value;
+		}
+		long i = find(k);
+		return i < 0 ? null : valueAt(i);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		String old = get(key);
+		overlay.put(key, value);
+		changed = true;
+		if (filter != null) {
+			filter.add(key);
+		}
+		if (old == null) {
+			size++;
+		}
+		return old;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		//saturated, as Map.size() specifies
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String remove(Object key) {
+		String old = get(key);
+		if (old == null) {
+			return null;
+		}
+		String k = (String) key;
+		overlay.remove(k);
+		if (base != null && find(k) >= 0) {
+			removed.add(k);
+		}
+		size--;
+		changed = true;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		overlay.clear();
+		removed.clear();
+		base = null;
+		baseCount = 0;
+		size = 0;
+		changed = true;
+		filter = emptyFilter();
+	}
+
+	private BloomFilter emptyFilter() {
+		return falsePositiveRate > 0 ? BloomFilter.create(0, falsePositiveRate) : null;
+	}
+
+	/**
+	 * Sorts the keys and looks them up in one forward pass over the mapped entries:
+	 * each binary search starts where the previous one ended.
+	 */
+	@Override
+	public Map<String, String> getAll(Collection<String> keys) {
+		Map<String, String> values = new TreeMap<String, String>();
+		long low = 0;
+		for (String key : new TreeSet<String>(keys)) {
+			if (filter != null && !filter.mightContain(key)) {
+				continue;
+			}
+			String value = overlay.get(key);
+			if (value == null && base != null && !removed.contains(key)) {
+				long i = find(key, low);
+				low = i < 0 ? -i - 1 : i + 1;
+				value = i < 0 ? null : valueAt(i);
+			}
+			if (value != null) {
+				values.put(key, value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Like {@link #getAll(Collection)}, finds out which of the keys are already in the dictionary in one pass.
+	 */
+	@Override
+	public void putAll(Map<? extends String, ? extends String> map) {
+		long low = 0;
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(map).entrySet()) {
+			String key = entry.getKey();
+			boolean existed = overlay.containsKey(key);
+			if (!existed && base != null && !removed.contains(key)) {
+				long i = find(key, low);
+				low = i < 0 ? -i - 1 : i + 1;
+				existed = i >= 0;
+			}
+			overlay.put(key, entry.getValue());
+			changed = true;
+			if (filter != null) {
+				filter.add(key);
+			}
+			if (!existed) {
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * Starts with a binary search for <i>from</i> and then walks the mapped entries in order,
+	 * merging in the in-memory changes, so it costs O(log n + k).
+	 */
+	@Override
+	public Stream<Map.Entry<String, String>> range(final String from, final String to) {
+		if (to != null && from.compareTo(to) >= 0) {
+			return Stream.empty();
+		}
+		long start = find(from);
+		final long first = start < 0 ? -start - 1 : start;
+		final Iterator<Map.Entry<String, String>> changes = Keys.range(overlay, from, to).iterator();
+
+		Iterator<Map.Entry<String, String>> merged = new Iterator<Map.Entry<String, String>>() {
+			long i = nextUnchanged(first);
+			String baseKey = baseKeyAt(i);
+			Map.Entry<String, String> change = changes.hasNext() ? changes.next() : null;
+
+			private String baseKeyAt(long i) {
+				if (i >= baseCount) {
+					return null;
+				}
+				String key = keyAt(i);
+				return to == null || key.compareTo(to) < 0 ? key : null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return change != null || baseKey != null;
+			}
+
+			@Override
+			public Map.Entry<String, String> next() {
+				Map.Entry<String, String> entry;
+				if (change != null && (baseKey == null || change.getKey().compareTo(baseKey) < 0)) {
+					entry = change;
+					change = changes.hasNext() ? changes.next() : null;
+				} else if (baseKey != null) {
+					entry = new AbstractMap.SimpleImmutableEntry<String, String>(baseKey, valueAt(i));
+					i = nextUnchanged(i + 1);
+					baseKey = baseKeyAt(i);
+				} else {
+					throw new NoSuchElementException();
+				}
+				return entry;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Binary search the mapped entries.
+	 * @return the index of the key, or (-(insertion point) - 1) if it is not there.
+	 */
+	private long find(String key) {
+		return find(key, 0);
+	}
+
+	/**
+	 * Binary search the mapped entries from index <i>low</i> on.
+	 */
+	private long find(String key, long low) {
+		long high = baseCount - 1;
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			int cmp = keyAt(mid).compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private long entryOffset(long i) {
+		return base.getLong(HEADER_SIZE + 8 * i);
+	}
+
+	private byte[] keyBytesAt(long i) {
+		long offset = entryOffset(i);
+		byte[] key = new byte[base.getInt(offset)];
+		base.get(offset + 4, key);
+		return key;
+	}
+
+	private String keyAt(long i) {
+		return new String(keyBytesAt(i), StandardCharsets.UTF_8);
+	}
+
+	private byte[] valueBytesAt(long i) {
+		long offset = entryOffset(i);
+		offset += 4 + base.getInt(offset);
+		byte[] value = new byte[base.getInt(offset)];
+		base.get(offset + 4, value);
+		return value;
+	}
+
+	private String valueAt(long i) {
+		return new String(valueBytesAt(i), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Merge the mapped entries with the in-memory changes into a new dictionary file.
+	 * Unchanged entries are copied as raw bytes; only their keys are decoded for the merge.
+	 * The offset table and the entries are written sequentially through two separate channels.
+	 * @param newFilter if not null, every written key is added to it
+	 */
+	private void write(File target, BloomFilter newFilter) throws IOException {
+		RandomAccessFile offsetsFile = new RandomAccessFile(target, "rw");
+		RandomAccessFile entriesFile = new RandomAccessFile(target, "rw");
+		try {
+			offsetsFile.setLength(0);
+			long entryPos = HEADER_SIZE + 8L * size;
+			DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(offsetsFile.getChannel())));
+			DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(entriesFile.getChannel().position(entryPos)), 1 << 16));
+
+			offsets.writeInt(MAGIC);
+			offsets.writeInt(VERSION);
+			offsets.writeLong(size);
+
+			Iterator<Map.Entry<String, String>> changes = overlay.entrySet().iterator();
+			Map.Entry<String, String> change = changes.hasNext() ? changes.next() : null;
+			long i = nextUnchanged(0);
+			String baseKey = i < baseCount ? keyAt(i) : null;
+
+			while (change != null || baseKey != null) {
+				byte[] key, value;
+				if (baseKey == null || (change != null && change.getKey().compareTo(baseKey) < 0)) {
+					if (newFilter != null) {
+						newFilter.add(change.getKey());
+					}
+					key = change.getKey().getBytes(StandardCharsets.UTF_8);
+					value = change.getValue().getBytes(StandardCharsets.UTF_8);
+					change = changes.hasNext() ? changes.next() : null;
+				} else {
+					if (newFilter != null) {
+						newFilter.add(baseKey);
+					}
+					key = keyBytesAt(i);
+					value = valueBytesAt(i);
+					i = nextUnchanged(i + 1);
+					baseKey = i < baseCount ? keyAt(i) : null;
+				}
+				offsets.writeLong(entryPos);
+				entries.writeInt(key.length);
+				entries.write(key);
+				entries.writeInt(value.length);
+				entries.write(value);
+				entryPos += 8 + key.length + value.length;
+			}
+			offsets.flush();
+			entries.flush();
+		} finally {
+			offsetsFile.close();
+			entriesFile.close();
+		}
+	}
+
+	/**
+	 * @return the first mapped entry at or after <i>i</i> that was neither removed nor replaced.
+	 */
+	private long nextUnchanged(long i) {
+		if (removed.isEmpty() && overlay.isEmpty()) {
+			return i;
+		}
+		while (i < baseCount) {
+			String key = keyAt(i);
+			if (!removed.contains(key) && !overlay.containsKey(key)) {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+}
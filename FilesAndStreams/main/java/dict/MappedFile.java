@@ -0,0 +1,86 @@
+package dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a whole file.
+ * A single {@link MappedByteBuffer} can cover at most 2GB, so the file is mapped as
+ * a sequence of segments and values that straddle two segments are assembled byte by byte.
+ * All accessors use absolute positions, so a mapping can be shared between threads.
+ *
+ * @author talm
+ *
+ */
+final class MappedFile {
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+	private final MappedByteBuffer[] segments;
+	private final long length;
+
+	/**
+	 * Map the first <i>length</i> bytes of a channel.
+	 * The mapping stays valid after the channel is closed.
+	 */
+	MappedFile(FileChannel channel, long length) throws IOException {
+		this.length = length;
+		segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; ++i) {
+			long start = (long) i << SEGMENT_BITS;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+		}
+	}
+
+	long length() {
+		return length;
+	}
+
+	byte getByte(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & (SEGMENT_SIZE - 1)));
+	}
+
+	char getChar(long pos) {
+		int offset = (int) (pos & (SEGMENT_SIZE - 1));
+		if (offset <= SEGMENT_SIZE - 2) {
+			return segments[(int) (pos >>> SEGMENT_BITS)].getChar(offset);
+		}
+		return (char) (((getByte(pos) & 0xff) << 8) | (getByte(pos + 1) & 0xff));
+	}
+
+	int getInt(long pos) {
+		int offset = (int) (pos & (SEGMENT_SIZE - 1));
+		if (offset <= SEGMENT_SIZE - 4) {
+			return segments[(int) (pos >>> SEGMENT_BITS)].getInt(offset);
+		}
+		int value = 0;
+		for (int i = 0; i < 4; ++i) {
+			value = (value << 8) | (getByte(pos + i) & 0xff);
+		}
+		return value;
+	}
+
+	long getLong(long pos) {
+		int offset = (int) (pos & (SEGMENT_SIZE - 1));
+		if (offset <= SEGMENT_SIZE - 8) {
+			return segments[(int) (pos >>> SEGMENT_BITS)].getLong(offset);
+		}
+		return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+	}
+
+	/**
+	 * Copy <i>dst.length</i> bytes starting at <i>pos</i> into <i>dst</i>.
+	 */
+	void get(long pos, byte[] dst) {
+		int done = 0;
+		while (done < dst.length) {
+			ByteBuffer segment = segments[(int) ((pos + done) >>> SEGMENT_BITS)].duplicate();
+			segment.position((int) ((pos + done) & (SEGMENT_SIZE - 1)));
+			int n = Math.min(segment.remaining(), dst.length - done);
+			segment.get(dst, done, n);
+			done += n;
+		}
+	}
+}
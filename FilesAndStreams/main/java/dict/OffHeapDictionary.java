@@ -0,0 +1,540 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * Implements a persistent dictionary whose entries live outside the Java heap, so that neither
+ * heap usage nor garbage-collection pauses depend on the size of the dictionary.
+ *
+ * Keys and values are appended as UTF-8 records to an arena of direct {@link ByteBuffer} chunks:
+ * <pre>keyLen:int valueLen:int key value</pre>
+ * An open-addressing hash index (linear probing, also in a direct buffer) maps each key to its record.
+ * An index slot holds the record address and the key's hash:
+ * <pre>address:long hash:int (unused):int</pre>
+ * Strings are only created when a value is returned; lookups compare the UTF-8 bytes of the key in place.
+ *
+ * Replaced and removed records stay in the arena until the garbage outweighs the live records,
+ * at which point the live records are copied to a fresh arena.
+ * {@link #close()} writes the entries sorted by key (in {@link String#compareTo(String)} order),
+ * in any {@link DictionaryFormat}.
+ *
+ * With {@link DictionaryFormat#BINARY_COMPRESSED}, values are also kept compressed in the arena, with the
+ * {@link ValueCompressor} from the file header (or, for a file that is not compressed yet, one trained on its values),
+ * and are only decompressed when they are returned. They are written back without being recompressed.
+ *
+ * The hash index keeps no key order, so {@link #range(String, String)} and {@link #prefixScan(String, int)}
+ * scan every record (comparing bytes, without creating strings) and sort the matches.
+ *
+ * @author talm
+ *
+ */
+public class OffHeapDictionary implements PersistentDictionary {
+	private static final int SLOT_SIZE = 16;
+	private static final int MIN_CAPACITY = 1 << 10;
+	private static final int MAX_CAPACITY = 1 << 26; // index of 1GB
+	private static final int MIN_CHUNK = 1 << 16;
+	private static final int MAX_CHUNK = 1 << 26;
+	private static final long MIN_GARBAGE = 1 << 20; // don't bother compacting less than this
+
+	private static final long EMPTY = 0;
+	private static final long TOMBSTONE = -1;
+
+	private final File file;
+	private final DictionaryFormat format;
+	// compresses the values in the arena, or null if they are plain UTF-8
+	private ValueCompressor compressor;
+
+	private ArrayList<ByteBuffer> chunks;
+	private ByteBuffer index;
+	private int capacity;
+	private int size;
+	private int usedSlots; // live entries and tombstones
+	private long liveBytes;
+	private long garbageBytes;
+	private int modifications;
+
+	public OffHeapDictionary(File dictFile) {
+		this(dictFile, DictionaryFormat.TEXT);
+	}
+
+	/**
+	 * @param dictFile the dictionary file
+	 * @param format the format {@link #close()} writes the file in
+	 */
+	public OffHeapDictionary(File dictFile, DictionaryFormat format) {
+		file = dictFile;
+		this.format = format;
+		reset();
+	}
+
+	@Override
+	public void open() throws IOException {
+		reset();
+		compressor = null;
+		//the header, the training sample and the entries are all read from the file verified here
+		File source = DictionaryFiles.verified(file);
+		if (format == DictionaryFormat.BINARY_COMPRESSED) {
+			compressor = DictionaryFiles.compressor(source);
+			if (compressor == null) {
+				compressor = DictionaryFiles.train(source);
+			}
+		}
+		if (compressor != null) {
+			DictionaryFiles.readVerified(source, new DictionaryFiles.EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) {
+					put(key, value);
+					return true;
+				}
+			});
+		} else {
+			//the UTF-8 bytes go straight from the read buffer into the arena, without creating strings
+			DictionaryFiles.readRawVerified(source, new DictionaryFiles.RawEntryHandler() {
+				@Override
+				public boolean entry(byte[] bytes, int keyOffset, int keyLength, int valueOffset, int valueLength) {
+					store(bytes, keyOffset, keyLength, bytes, valueOffset, valueLength);
+					compactIfWasteful();
+					return true;
+				}
+			});
+		}
+		modifications = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (modifications != 0 || !file.exists()) {
+			long[] records = sortedRecords();
+			File temp = new File(file.getPath() + ".tmp");
+			//values put into a new dictionary were compressed without a preset; train one for the file
+			boolean recompress = compressor != null && compressor.presetDictionary().length == 0 && records.length > 0;
+			DictionaryFiles.EntryWriter writer = DictionaryFiles.writer(temp, format,
+					recompress ? DictionaryFiles.train(sampleValues(records)) : compressor);
+			try {
+				for (long record : records) {
+					if (compressor != null && !recompress) {
+						writer.writeCompressed(keyAt(record), storedValueAt(record));
+					} else {
+						writer.write(keyAt(record), valueAt(record));
+					}
+				}
+			} finally {
+				writer.close();
+			}
+			DictionaryFiles.commit(temp, file);
+		}
+		//let go of the direct memory
+		chunks = null;
+		index = null;
+		reset();
+	}
+
+	@Override
+	public String get(Object key) {
+		byte[] k = ((String) key).getBytes(StandardCharsets.UTF_8);
+		int slot = find(k, hash(k));
+		return slot < 0 ? null : valueAt(addressAt(slot));
+	}
+
+	@Override
+	public String put(String key, String value) {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		byte[] v = compressor != null ? compressor.compress(value) : value.getBytes(StandardCharsets.UTF_8);
+		modifications++;
+		long old = store(k, 0, k.length, v, 0, v.length);
+		//the replaced record stays readable until the arena is compacted
+		String oldValue = old == EMPTY ? null : valueAt(old);
+		compactIfWasteful();
+		return oldValue;
+	}
+
+	/**
+	 * Append a record and point the key's slot at it.
+	 * @return the address of the record it replaced, or EMPTY if the key is new
+	 */
+	private long store(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+		int hash = hash(key, keyOffset, keyLength);
+		int slot = find(key, keyOffset, keyLength, hash);
+		if (slot >= 0) {
+			long old = addressAt(slot);
+			discard(old);
+			index.putLong(slot * SLOT_SIZE, append(key, keyOffset, keyLength, value, valueOffset, valueLength));
+			return old;
+		}
+
+		if ((usedSlots + 1) * 10L > capacity * 7L) {
+			//grow only if live entries (rather than tombstones) fill the index
+			rehash(size * 2 >= capacity / 2 ? capacity * 2 : capacity);
+		}
+		slot = freeSlot(hash);
+		if (index.getLong(slot * SLOT_SIZE) == EMPTY) {
+			usedSlots++;
+		}
+		index.putLong(slot * SLOT_SIZE, append(key, keyOffset, keyLength, value, valueOffset, valueLength));
+		index.putInt(slot * SLOT_SIZE + 8, hash);
+		size++;
+		return EMPTY;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		byte[] k = ((String) key).getBytes(StandardCharsets.UTF_8);
+		return find(k, hash(k)) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String remove(Object key) {
+		byte[] k = ((String) key).getBytes(StandardCharsets.UTF_8);
+		int slot = find(k, hash(k));
+		if (slot < 0) {
+			return null;
+		}
+		long old = addressAt(slot);
+		String oldValue = valueAt(old);
+		discard(old);
+		index.putLong(slot * SLOT_SIZE, TOMBSTONE);
+		size--;
+		modifications++;
+		compactIfWasteful();
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		reset();
+		modifications++;
+	}
+
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		byte[] low = from.getBytes(StandardCharsets.UTF_8);
+		byte[] high = to == null ? null : to.getBytes(StandardCharsets.UTF_8);
+		long[] matches = new long[16];
+		int n = 0;
+		for (int slot = 0; slot < capacity; ++slot) {
+			long address = index.getLong(slot * SLOT_SIZE);
+			if (address != EMPTY && address != TOMBSTONE
+					&& compareKey(address, low) >= 0 && (high == null || compareKey(address, high) < 0)) {
+				if (n == matches.length) {
+					matches = Arrays.copyOf(matches, 2 * n);
+				}
+				matches[n++] = address;
+			}
+		}
+		final long[] sorted = Arrays.copyOf(matches, n);
+		sort(sorted, new long[n], 0, n);
+		return Arrays.stream(sorted).mapToObj(address ->
+				new AbstractMap.SimpleImmutableEntry<String, String>(keyAt(address), valueAt(address)));
+	}
+
+	private void reset() {
+		chunks = new ArrayList<ByteBuffer>();
+		capacity = MIN_CAPACITY;
+		index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		size = 0;
+		usedSlots = 0;
+		liveBytes = 0;
+		garbageBytes = 0;
+	}
+
+	/*======= Hash index ======*/
+
+	private static int hash(byte[] key) {
+		return hash(key, 0, key.length);
+	}
+
+	private static int hash(byte[] key, int offset, int length) {
+		int h = 1;
+		for (int i = offset; i < offset + length; ++i) {
+			h = 31 * h + key[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private long addressAt(int slot) {
+		return index.getLong(slot * SLOT_SIZE);
+	}
+
+	/**
+	 * @return the slot holding the key, or -1 if it is not in the dictionary.
+	 */
+	private int find(byte[] key, int hash) {
+		return find(key, 0, key.length, hash);
+	}
+
+	private int find(byte[] key, int offset, int length, int hash) {
+		int mask = capacity - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			long address = index.getLong(slot * SLOT_SIZE);
+			if (address == EMPTY) {
+				return -1;
+			}
+			if (address != TOMBSTONE && index.getInt(slot * SLOT_SIZE + 8) == hash && keyEquals(address, key, offset, length)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * @return the first empty or deleted slot in the probe sequence of a hash.
+	 */
+	private int freeSlot(int hash) {
+		int mask = capacity - 1;
+		int slot = hash & mask;
+		while (true) {
+			long address = index.getLong(slot * SLOT_SIZE);
+			if (address == EMPTY || address == TOMBSTONE) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Rebuild the index with a new capacity, dropping all tombstones.
+	 */
+	private void rehash(int newCapacity) {
+		if (newCapacity > MAX_CAPACITY) {
+			throw new IllegalStateException("Dictionary index can not grow beyond " + MAX_CAPACITY + " slots");
+		}
+		ByteBuffer old = index;
+		int oldCapacity = capacity;
+		capacity = newCapacity;
+		index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		usedSlots = 0;
+		for (int slot = 0; slot < oldCapacity; ++slot) {
+			long address = old.getLong(slot * SLOT_SIZE);
+			if (address != EMPTY && address != TOMBSTONE) {
+				int hash = old.getInt(slot * SLOT_SIZE + 8);
+				int free = freeSlot(hash);
+				index.putLong(free * SLOT_SIZE, address);
+				index.putInt(free * SLOT_SIZE + 8, hash);
+				usedSlots++;
+			}
+		}
+	}
+
+	/*======= Record arena ======*/
+
+	// record addresses are (chunk + 1) << 32 | offset, so they are never EMPTY or TOMBSTONE
+	private static long address(int chunk, int offset) {
+		return ((long) (chunk + 1) << 32) | offset;
+	}
+
+	private ByteBuffer chunkOf(long address) {
+		return chunks.get((int) (address >>> 32) - 1);
+	}
+
+	private static int offsetOf(long address) {
+		return (int) address;
+	}
+
+	private static int recordSize(int keyLength, int valueLength) {
+		return 8 + keyLength + valueLength;
+	}
+
+	private long append(byte[] key, byte[] value) {
+		return append(key, 0, key.length, value, 0, value.length);
+	}
+
+	private long append(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+		int needed = recordSize(keyLength, valueLength);
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if (chunk == null || chunk.remaining() < needed) {
+			int chunkSize = chunk == null ? MIN_CHUNK : Math.min(MAX_CHUNK, chunk.capacity() * 2);
+			chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, needed));
+			chunks.add(chunk);
+		}
+		long address = address(chunks.size() - 1, chunk.position());
+		chunk.putInt(keyLength).putInt(valueLength).put(key, keyOffset, keyLength).put(value, valueOffset, valueLength);
+		liveBytes += needed;
+		return address;
+	}
+
+	private void discard(long address) {
+		ByteBuffer chunk = chunkOf(address);
+		int offset = offsetOf(address);
+		int bytes = recordSize(chunk.getInt(offset), chunk.getInt(offset + 4));
+		liveBytes -= bytes;
+		garbageBytes += bytes;
+	}
+
+	/**
+	 * Copy the live records into a fresh arena once most of the arena is garbage.
+	 */
+	private void compactIfWasteful() {
+		if (garbageBytes < MIN_GARBAGE || garbageBytes < liveBytes) {
+			return;
+		}
+		ArrayList<ByteBuffer> old = chunks;
+		chunks = new ArrayList<ByteBuffer>();
+		liveBytes = 0;
+		garbageBytes = 0;
+		for (int slot = 0; slot < capacity; ++slot) {
+			long address = index.getLong(slot * SLOT_SIZE);
+			if (address != EMPTY && address != TOMBSTONE) {
+				ByteBuffer chunk = old.get((int) (address >>> 32) - 1);
+				int offset = offsetOf(address);
+				byte[] key = new byte[chunk.getInt(offset)];
+				byte[] value = new byte[chunk.getInt(offset + 4)];
+				bytesAt(chunk, offset + 8, key);
+				bytesAt(chunk, offset + 8 + key.length, value);
+				index.putLong(slot * SLOT_SIZE, append(key, value));
+			}
+		}
+	}
+
+	private static void bytesAt(ByteBuffer chunk, int offset, byte[] dst) {
+		ByteBuffer view = chunk.duplicate();
+		view.position(offset);
+		view.get(dst);
+	}
+
+	private boolean keyEquals(long address, byte[] key, int keyOffset, int keyLength) {
+		ByteBuffer chunk = chunkOf(address);
+		int offset = offsetOf(address);
+		if (chunk.getInt(offset) != keyLength) {
+			return false;
+		}
+		offset += 8;
+		for (int i = 0; i < keyLength; ++i) {
+			if (chunk.get(offset + i) != key[keyOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String keyAt(long address) {
+		ByteBuffer chunk = chunkOf(address);
+		int offset = offsetOf(address);
+		byte[] key = new byte[chunk.getInt(offset)];
+		bytesAt(chunk, offset + 8, key);
+		return new String(key, StandardCharsets.UTF_8);
+	}
+
+	private String valueAt(long address) {
+		byte[] value = storedValueAt(address);
+		return compressor != null ? compressor.decompress(value, 0, value.length) : new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the value bytes of a record as they are stored (compressed, if values are compressed)
+	 */
+	private byte[] storedValueAt(long address) {
+		ByteBuffer chunk = chunkOf(address);
+		int offset = offsetOf(address);
+		int keyLength = chunk.getInt(offset);
+		byte[] value = new byte[chunk.getInt(offset + 4)];
+		bytesAt(chunk, offset + 8 + keyLength, value);
+		return value;
+	}
+
+	private List<String> sampleValues(long[] records) {
+		List<String> samples = new ArrayList<String>();
+		int step = Math.max(1, records.length / ValueCompressor.SAMPLE_SIZE);
+		for (int i = 0; i < records.length; i += step) {
+			samples.add(valueAt(records[i]));
+		}
+		return samples;
+	}
+
+	/*======= Sorted output ======*/
+
+	/**
+	 * @return the addresses of all records, sorted by key without creating any key strings.
+	 */
+	private long[] sortedRecords() {
+		long[] records = new long[size];
+		int n = 0;
+		for (int slot = 0; slot < capacity; ++slot) {
+			long address = index.getLong(slot * SLOT_SIZE);
+			if (address != EMPTY && address != TOMBSTONE) {
+				records[n++] = address;
+			}
+		}
+		sort(records, new long[records.length], 0, records.length);
+		return records;
+	}
+
+	private void sort(long[] a, long[] tmp, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(a, tmp, from, mid);
+		sort(a, tmp, mid, to);
+		if (compareKeys(a[mid - 1], a[mid]) <= 0) {
+			return;
+		}
+		System.arraycopy(a, from, tmp, from, to - from);
+		for (int i = from, l = from, r = mid; i < to; ++i) {
+			a[i] = r >= to || (l < mid && compareKeys(tmp[l], tmp[r]) <= 0) ? tmp[l++] : tmp[r++];
+		}
+	}
+
+	/**
+	 * Compare the UTF-8 keys of two records in the order {@link String#compareTo(String)} would compare them.
+	 */
+	private int compareKeys(long a, long b) {
+		ByteBuffer chunkA = chunkOf(a), chunkB = chunkOf(b);
+		int offA = offsetOf(a), offB = offsetOf(b);
+		int lenA = chunkA.getInt(offA), lenB = chunkB.getInt(offB);
+		offA += 8;
+		offB += 8;
+		for (int i = 0, n = Math.min(lenA, lenB); i < n; ++i) {
+			int x = chunkA.get(offA + i) & 0xff, y = chunkB.get(offB + i) & 0xff;
+			if (x != y) {
+				return compareUtf8(x, y);
+			}
+		}
+		return lenA - lenB;
+	}
+
+	/**
+	 * Compare the UTF-8 key of a record with a UTF-8 key, in {@link String#compareTo(String)} order.
+	 */
+	private int compareKey(long address, byte[] key) {
+		ByteBuffer chunk = chunkOf(address);
+		int offset = offsetOf(address);
+		int length = chunk.getInt(offset);
+		offset += 8;
+		for (int i = 0, n = Math.min(length, key.length); i < n; ++i) {
+			int x = chunk.get(offset + i) & 0xff, y = key[i] & 0xff;
+			if (x != y) {
+				return compareUtf8(x, y);
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Order the first differing bytes of two UTF-8 strings that are equal up to that point.
+	 * UTF-8 byte order is code point order, which only differs from UTF-16 order in that supplementary
+	 * characters (lead bytes 0xF0-0xF4, surrogate pairs in UTF-16) sort before U+E000-U+FFFF (lead bytes 0xEE-0xEF).
+	 */
+	private static int compareUtf8(int x, int y) {
+		if (x >= 0xF0 && y >= 0xEE && y < 0xF0) {
+			return -1;
+		}
+		if (y >= 0xF0 && x >= 0xEE && x < 0xF0) {
+			return 1;
+		}
+		return x - y;
+	}
+}
@@ -0,0 +1,273 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads a text dictionary file on all processors.
+ *
+ * The file is cut into chunks at line boundaries, and the chunks are read and parsed by a fork/join task tree:
+ * each leaf reads its chunk with a single positional read, splits it into entries at the byte level with
+ * {@link TextScanner} (decoding only the keys and values), and sorts them (a chunk of a file written by a dictionary is already sorted,
+ * so this is just a check); each inner task merges the sorted runs of its two halves.
+ * Since the chunks of a sorted file follow each other, the merges are mostly plain array copies.
+ * The result is a {@link SortedEntries}, which can be bulk-loaded into a tree in linear time.
+ *
+ * As when the file is read line by line, later entries override earlier ones with the same key.
+ * Only charsets in which a newline byte always means a newline (UTF-8 and single-byte charsets)
+ * can be cut at arbitrary points; other files, small files and binary files are left to
+ * {@link DictionaryFiles#read(File, DictionaryFiles.EntryHandler)}.
+ *
+ * @author talm
+ *
+ */
+final class ParallelTextLoader {
+	/** Files smaller than this are not worth splitting. */
+	static final long MIN_PARALLEL_SIZE = 1 << 22;
+
+	private static final int MIN_CHUNK = 1 << 20;
+	private static final int MAX_CHUNK = 1 << 26;
+	private static final int SCAN_SIZE = 1 << 16;
+
+	private ParallelTextLoader() {
+	}
+
+	/**
+	 * Load a text dictionary file in parallel.
+	 * @param file a verified dictionary file (see {@link DictionaryFiles#verified(File)})
+	 * @return the entries of the file, or null if the file should be read sequentially
+	 * (it is missing, small, binary, or in a charset that can not be split)
+	 * @throws IOException
+	 */
+	static SortedEntries load(File file) throws IOException {
+		return load(file, MIN_PARALLEL_SIZE);
+	}
+
+	static SortedEntries load(File file, long minSize) throws IOException {
+		if (!file.exists() || file.length() < minSize || !TextScanner.scannable(Charset.defaultCharset())) {
+			return null;
+		}
+		if (DictionaryFiles.format(file) != DictionaryFormat.TEXT) {
+			return null;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long[] bounds = chunkBounds(channel, ForkJoinPool.getCommonPoolParallelism());
+			try {
+				return ForkJoinPool.commonPool().invoke(new LoadTask(channel, bounds, 0, bounds.length - 1)).entries();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Cut the file into about four chunks per thread (so uneven chunks even out), each starting at the beginning
+	 * of a line.
+	 * @return the chunk boundaries: chunk i is [bounds[i], bounds[i+1])
+	 */
+	private static long[] chunkBounds(FileChannel channel, int parallelism) throws IOException {
+		long size = channel.size();
+		long chunk = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (4L * Math.max(1, parallelism))));
+		long[] bounds = new long[(int) ((size + chunk - 1) / chunk) + 1];
+		int n = 1;
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+		long position = chunk;
+		while (position < size) {
+			long lineStart = nextLine(channel, position, scan);
+			if (lineStart >= size) {
+				break;
+			}
+			bounds[n++] = lineStart;
+			position = Math.max(lineStart, position) + chunk;
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * @return the position just after the first newline at or after <i>position</i>, or the file size if there is none
+	 */
+	private static long nextLine(FileChannel channel, long position, ByteBuffer scan) throws IOException {
+		while (true) {
+			scan.clear();
+			int n = channel.read(scan, position);
+			if (n < 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < n; ++i) {
+				if (scan.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * Parse a chunk of lines into entries, in file order.
+	 */
+	private static Run parse(FileChannel channel, long start, long end) throws IOException {
+		byte[] bytes = new byte[(int) (end - start)];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				throw new IOException("Dictionary file changed while it was read");
+			}
+		}
+		final Charset charset = Charset.defaultCharset();
+		final Run run = new Run(Math.max(16, bytes.length / 32));
+		TextScanner.scan(bytes, 0, bytes.length, true, new TextScanner.LineHandler() {
+			@Override
+			public boolean line(byte[] bytes, int start, int colon, int end) {
+				run.add(new String(bytes, start, colon - start, charset), new String(bytes, colon + 1, end - colon - 1, charset));
+				return true;
+			}
+		});
+		run.sort();
+		return run;
+	}
+
+	/**
+	 * Entries sorted by key, without duplicates.
+	 */
+	private static final class Run {
+		String[] keys;
+		String[] values;
+		int size;
+
+		Run(int capacity) {
+			keys = new String[capacity];
+			values = new String[capacity];
+		}
+
+		void add(String key, String value) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+		}
+
+		/**
+		 * Sort the entries, which are in file order, keeping only the last entry with each key.
+		 */
+		void sort() {
+			boolean sorted = true;
+			for (int i = 1; i < size && sorted; ++i) {
+				sorted = keys[i - 1].compareTo(keys[i]) < 0;
+			}
+			if (!sorted) {
+				//a stable sort of positions keeps duplicates in file order, so the last of each group wins
+				Integer[] order = new Integer[size];
+				for (int i = 0; i < size; ++i) {
+					order[i] = i;
+				}
+				final String[] k = keys;
+				Arrays.sort(order, (a, b) -> k[a].compareTo(k[b]));
+				String[] sortedKeys = new String[size];
+				String[] sortedValues = new String[size];
+				int n = 0;
+				for (int i = 0; i < size; ++i) {
+					if (n > 0 && sortedKeys[n - 1].equals(keys[order[i]])) {
+						n--;
+					}
+					sortedKeys[n] = keys[order[i]];
+					sortedValues[n] = values[order[i]];
+					n++;
+				}
+				keys = sortedKeys;
+				values = sortedValues;
+				size = n;
+			}
+		}
+
+		/**
+		 * Merge a run of later entries into this one; on equal keys the later entry wins.
+		 */
+		Run merge(Run later) {
+			if (size == 0) {
+				return later;
+			}
+			if (later.size == 0) {
+				return this;
+			}
+			Run merged = new Run(size + later.size);
+			if (keys[size - 1].compareTo(later.keys[0]) < 0) {
+				//the common case: consecutive chunks of a sorted file
+				System.arraycopy(keys, 0, merged.keys, 0, size);
+				System.arraycopy(values, 0, merged.values, 0, size);
+				System.arraycopy(later.keys, 0, merged.keys, size, later.size);
+				System.arraycopy(later.values, 0, merged.values, size, later.size);
+				merged.size = size + later.size;
+				return merged;
+			}
+			int i = 0, j = 0;
+			while (i < size || j < later.size) {
+				int c = i == size ? 1 : j == later.size ? -1 : keys[i].compareTo(later.keys[j]);
+				if (c < 0) {
+					merged.add(keys[i], values[i]);
+					i++;
+				} else {
+					merged.add(later.keys[j], later.values[j]);
+					if (c == 0) {
+						i++;
+					}
+					j++;
+				}
+			}
+			return merged;
+		}
+
+		SortedEntries entries() {
+			return new SortedEntries(keys, values, size);
+		}
+	}
+
+	/**
+	 * Load the chunks [from, to).
+	 */
+	private static final class LoadTask extends RecursiveTask<Run> {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final int from;
+		private final int to;
+
+		LoadTask(FileChannel channel, long[] bounds, int from, int to) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Run compute() {
+			if (to - from <= 1) {
+				try {
+					return from == to ? new Run(1) : parse(channel, bounds[from], bounds[to]);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (from + to) >>> 1;
+			LoadTask left = new LoadTask(channel, bounds, from, middle);
+			left.fork();
+			Run right = new LoadTask(channel, bounds, middle, to).compute();
+			return left.join().merge(right);
+		}
+	}
+}
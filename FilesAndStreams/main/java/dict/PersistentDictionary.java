@@ -1,6 +1,11 @@
 package dict;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Stores a dictionary: a map of words to definitions.
@@ -30,6 +35,22 @@ public interface PersistentDictionary {
 	 */
 	public void close() throws IOException;
 
+	/**
+	 * Start making the current contents of the dictionary durable, without closing it.
+	 * The dictionary can be used (and changed) while the flush is in progress; changes made after
+	 * the call are not necessarily covered by it.
+	 * Implementations that can not flush without closing return a future that fails with
+	 * {@link UnsupportedOperationException}.
+	 *
+	 * @return a future that completes when everything changed before the call persists across program executions,
+	 * or completes exceptionally with the {@link IOException} that prevented it
+	 */
+	public default CompletableFuture<Void> flush() {
+		CompletableFuture<Void> unsupported = new CompletableFuture<Void>();
+		unsupported.completeExceptionally(new UnsupportedOperationException(getClass().getSimpleName() + " can only be persisted by close()"));
+		return unsupported;
+	}
+
 	
 	/*======= Methods to read/write definitions (a subset of Map<String,String>)  ======*/
 	
@@ -102,4 +123,68 @@ public interface PersistentDictionary {
 	 */
 	public void clear();
 
+
+	/*======= Batched operations ======*/
+
+	/**
+	 * Returns the values of many keys at once.
+	 * Implementations may reorder the lookups (e.g., sort the keys and serve them in one pass over a file),
+	 * which is much cheaper than calling {@link #get(Object)} for each key.
+	 *
+	 * @param keys the keys whose values are to be returned
+	 * @return a map from each of the keys that is in the dictionary to its value; keys that are not in the dictionary are left out
+	 * @throws NullPointerException if one of the keys is null
+	 */
+	public default Map<String, String> getAll(Collection<String> keys) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (String key : keys) {
+			String value = get(key);
+			if (value != null) {
+				values.put(key, value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Copies all of the mappings from the specified map to this map, as if by calling {@link #put(String, String)}
+	 * for each of them. Implementations may reorder the puts to amortize lookups and locking over the batch.
+	 *
+	 * @param map mappings to be stored in this map
+	 * @throws NullPointerException if the specified map is null, or contains a null key
+	 */
+	public default void putAll(Map<? extends String, ? extends String> map) {
+		for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+
+	/*======= Ordered queries ======*/
+
+	/**
+	 * Returns the entries whose keys start with the specified prefix, in ascending key order.
+	 * The returned entries can not be used to change the dictionary.
+	 *
+	 * @param prefix the prefix of the keys to return (the empty prefix matches every key)
+	 * @param limit the maximum number of entries to return
+	 * @return a stream of the matching entries
+	 * @throws NullPointerException if the specified prefix is null
+	 */
+	public default Stream<Map.Entry<String, String>> prefixScan(String prefix, int limit) {
+		return range(prefix, Keys.prefixEnd(prefix)).limit(limit);
+	}
+
+	/**
+	 * Returns the entries whose keys are greater than or equal to <i>from</i> and less than <i>to</i>,
+	 * in ascending key order.
+	 * The returned entries can not be used to change the dictionary.
+	 *
+	 * @param from the lowest key to return (inclusive)
+	 * @param to the upper bound of the keys to return (exclusive), or null to return all keys from <i>from</i> on
+	 * @return a stream of the matching entries
+	 * @throws NullPointerException if <i>from</i> is null
+	 */
+	public Stream<Map.Entry<String, String>> range(String from, String to);
+
 }
@@ -0,0 +1,363 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+
+/**
+ * Implements a persistent dictionary whose entries are hash-partitioned into a number of shards,
+ * each an {@link InMemoryDictionary} with a file of its own (<pre>dictFile.shard0, dictFile.shard1, ...</pre>).
+ *
+ * The shards are opened and closed in parallel, one thread per shard (up to the number of processors),
+ * and since each shard keeps track of its own changes, {@link #close()} only rewrites the shards that changed.
+ * {@link #flush()} flushes the shards in the background, all at once.
+ *
+ * The dictionary file itself is a small manifest that records the number of shards and their generation.
+ * It is written after the shards, so shard files without a manifest are left over from a deleted dictionary,
+ * and shard files the manifest does not refer to are left over from an interrupted {@link #close()}; both are
+ * deleted by {@link #open()}.
+ * If the dictionary is opened with a different number of shards than it was written with, the entries are
+ * redistributed into a new generation of shard files (<pre>dictFile.shard0.g1, ...</pre>), which the next
+ * {@link #close()} writes before the manifest switches to it. Until then the files of the old layout are left
+ * untouched, so a crash at any point leaves a complete layout in place.
+ * A shard file that can not be read fails {@link #open()}, rather than opening an empty shard.
+ *
+ * @author talm
+ *
+ */
+public class ShardedDictionary implements PersistentDictionary {
+	private static final String SHARDS_KEY = "shards";
+	private static final String GENERATION_KEY = "generation";
+
+	private final File file;
+	private final DictionaryFormat format;
+	private final InMemoryDictionary[] shards;
+	// number of shards the files on disk were written with, or 0 if there are none
+	private int writtenShards;
+	// generation of the shard files the manifest refers to
+	private int writtenGeneration;
+	// generation the current shards are written as; a new one while the number of shards changes
+	private int generation;
+
+	public ShardedDictionary(File dictFile, int numShards) {
+		this(dictFile, numShards, DictionaryFormat.TEXT);
+	}
+
+	/**
+	 * @param dictFile the manifest file; the shard files are kept next to it
+	 * @param numShards the number of shards
+	 * @param format the format the shard files are written in
+	 */
+	public ShardedDictionary(File dictFile, int numShards, DictionaryFormat format) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("There must be at least one shard");
+		}
+		file = dictFile;
+		this.format = format;
+		shards = new InMemoryDictionary[numShards];
+		for (int i = 0; i < numShards; ++i) {
+			shards[i] = new InMemoryDictionary(shardFile(i), format);
+		}
+	}
+
+	@Override
+	public void open() throws IOException {
+		readManifest();
+		removeStaleFiles();
+		//a different number of shards is written as a new generation, so the old layout stays intact until then
+		generation = writtenShards == 0 || writtenShards == shards.length ? writtenGeneration : writtenGeneration + 1;
+		for (int i = 0; i < shards.length; ++i) {
+			if (!shards[i].file.equals(shardFile(i))) {
+				shards[i].awaitFlush();
+				shards[i] = new InMemoryDictionary(shardFile(i), format);
+			}
+		}
+		forEachShard(new ShardTask() {
+			@Override
+			public void run(InMemoryDictionary shard) throws IOException {
+				//unlike open(), fails on a shard that can not be read
+				shard.openStrict();
+			}
+		});
+		if (generation != writtenGeneration) {
+			redistribute();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		forEachShard(new ShardTask() {
+			@Override
+			public void run(InMemoryDictionary shard) throws IOException {
+				//unlike close(), reports a shard that could not be written
+				shard.saveChanges();
+			}
+		});
+		writeManifest();
+	}
+
+	/**
+	 * Flushes the changed shards in parallel, then the manifest if it changed.
+	 */
+	@Override
+	public CompletableFuture<Void> flush() {
+		CompletableFuture<?>[] flushes = new CompletableFuture<?>[shards.length];
+		for (int i = 0; i < shards.length; ++i) {
+			flushes[i] = shards[i].flush();
+		}
+		return CompletableFuture.allOf(flushes).thenRun(() -> {
+			try {
+				writeManifest();
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Record the number of shards and their generation, once the shards themselves have been written.
+	 * Committing the manifest is what switches a reader over to a new layout.
+	 */
+	private synchronized void writeManifest() throws IOException {
+		if (writtenShards != shards.length || writtenGeneration != generation) {
+			Map<String, String> manifest = new HashMap<String, String>();
+			manifest.put(SHARDS_KEY, Integer.toString(shards.length));
+			manifest.put(GENERATION_KEY, Integer.toString(generation));
+			File temp = new File(file.getPath() + ".tmp");
+			DictionaryFiles.write(temp, manifest, DictionaryFormat.TEXT);
+			DictionaryFiles.commit(temp, file);
+			//the shard files of the previous layout are no longer referenced
+			if (writtenGeneration != generation) {
+				for (int i = 0; i < writtenShards; ++i) {
+					shardFile(writtenGeneration, i).delete();
+					DictionaryFiles.previousGeneration(shardFile(writtenGeneration, i)).delete();
+				}
+			}
+			writtenShards = shards.length;
+			writtenGeneration = generation;
+		}
+	}
+
+	@Override
+	public String get(Object key) {
+		return shard(key).get(key);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		return shard(key).put(key, value);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return shard(key).containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (InMemoryDictionary shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	@Override
+	public String remove(Object key) {
+		return shard(key).remove(key);
+	}
+
+	@Override
+	public void clear() {
+		for (InMemoryDictionary shard : shards) {
+			shard.clear();
+		}
+	}
+
+	/**
+	 * Splits the entries by shard, so each shard is updated with a single batch.
+	 */
+	@Override
+	public void putAll(Map<? extends String, ? extends String> map) {
+		List<Map<String, String>> batches = new ArrayList<Map<String, String>>(shards.length);
+		for (int i = 0; i < shards.length; ++i) {
+			batches.add(new HashMap<String, String>());
+		}
+		for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+			batches.get(shardIndex(entry.getKey(), shards.length)).put(entry.getKey(), entry.getValue());
+		}
+		for (int i = 0; i < shards.length; ++i) {
+			if (!batches.get(i).isEmpty()) {
+				shards[i].putAll(batches.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Merges the (sorted) ranges of all shards.
+	 */
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		List<Stream<Map.Entry<String, String>>> ranges = new ArrayList<Stream<Map.Entry<String, String>>>(shards.length);
+		for (InMemoryDictionary shard : shards) {
+			ranges.add(shard.range(from, to));
+		}
+		return Keys.merge(ranges);
+	}
+
+	private InMemoryDictionary shard(Object key) {
+		return shards[shardIndex(key, shards.length)];
+	}
+
+	/**
+	 * Spread the string hash (which is fixed by the language specification, so it is stable across runs)
+	 * before taking the remainder, since its low bits alone are poorly distributed.
+	 */
+	static int shardIndex(Object key, int numShards) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % numShards;
+	}
+
+	/**
+	 * @return the file of a current shard
+	 */
+	File shardFile(int i) {
+		return shardFile(generation, i);
+	}
+
+	/**
+	 * Generation 0 keeps the plain names, so dictionaries that were never resharded keep their files.
+	 */
+	private File shardFile(int generation, int i) {
+		return new File(file.getPath() + ".shard" + i + (generation == 0 ? "" : ".g" + generation));
+	}
+
+	/**
+	 * Read the number of shards and their generation from the manifest (0 shards if there is no manifest).
+	 */
+	private void readManifest() throws IOException {
+		writtenShards = 0;
+		writtenGeneration = 0;
+		if (!file.exists()) {
+			return;
+		}
+		Map<String, String> manifest = new HashMap<String, String>();
+		DictionaryFiles.read(file, manifest);
+		String count = manifest.get(SHARDS_KEY);
+		String gen = manifest.get(GENERATION_KEY);
+		try {
+			writtenShards = count == null ? 0 : Integer.parseInt(count);
+			writtenGeneration = gen == null ? 0 : Integer.parseInt(gen);
+		} catch (NumberFormatException e) {
+			throw new IOException(file + " is not a sharded dictionary manifest.");
+		}
+	}
+
+	/**
+	 * Delete the shard files (and their previous generations and temporary files) the manifest does not refer to:
+	 * all of them if there is no manifest, and otherwise those of other layouts.
+	 */
+	private void removeStaleFiles() {
+		Pattern names = Pattern.compile(Pattern.quote(file.getName()) + "\\.shard(\\d{1,9})(\\.g(\\d{1,9}))?(\\.prev|\\.tmp)?");
+		File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File candidate : files) {
+			Matcher name = names.matcher(candidate.getName());
+			if (!name.matches()) {
+				continue;
+			}
+			int index = Integer.parseInt(name.group(1));
+			int gen = name.group(3) == null ? 0 : Integer.parseInt(name.group(3));
+			if (index >= writtenShards || gen != writtenGeneration || ".tmp".equals(name.group(4))) {
+				candidate.delete();
+			}
+		}
+	}
+
+	/**
+	 * Move the entries of the shard files of the old layout to the (empty) shards of the new generation.
+	 */
+	private void redistribute() throws IOException {
+		TreeMap<String, String> all = new TreeMap<String, String>();
+		for (int i = 0; i < writtenShards; ++i) {
+			DictionaryFiles.read(shardFile(writtenGeneration, i), all);
+		}
+		putAll(all);
+	}
+
+	/**
+	 * Work done on a single shard.
+	 */
+	private interface ShardTask {
+		void run(InMemoryDictionary shard) throws IOException;
+	}
+
+	/**
+	 * Run a task on every shard in parallel, and wait for all of them to finish.
+	 * @throws IOException the first failure, if any of the tasks failed
+	 */
+	private void forEachShard(final ShardTask task) throws IOException {
+		int threads = Math.min(shards.length, Runtime.getRuntime().availableProcessors());
+		if (threads <= 1) {
+			IOException failure = null;
+			for (InMemoryDictionary shard : shards) {
+				try {
+					task.run(shard);
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(shards.length);
+			for (final InMemoryDictionary shard : shards) {
+				results.add(pool.submit(() -> {
+					task.run(shard);
+					return null;
+				}));
+			}
+			IOException failure = null;
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the shards", e);
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
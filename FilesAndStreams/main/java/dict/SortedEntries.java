@@ -0,0 +1,158 @@
+package dict;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Entries held in a pair of parallel arrays, sorted by key in {@link String#compareTo(String)} order,
+ * with no duplicate keys.
+ *
+ * This is the form in which entries are bulk-loaded: handing it to {@link java.util.TreeMap#putAll(Map)} of an
+ * empty map (or to the {@link java.util.TreeMap#TreeMap(SortedMap)} constructor) builds the tree in linear time
+ * instead of inserting the entries one by one. The map is read-only. Lookups binary-search the arrays, and the
+ * sub-map views are ranges of the same arrays, bounded by their keys as {@link SortedMap} specifies.
+ *
+ * @author talm
+ *
+ */
+final class SortedEntries extends AbstractMap<String, String> implements SortedMap<String, String> {
+	private final String[] keys;
+	private final String[] values;
+	// the entries are [from, to) of the arrays
+	private final int from;
+	private final int to;
+	// the keys a sub-map view is bounded by (inclusive and exclusive), or null if it is not bounded
+	private final String low;
+	private final String high;
+
+	SortedEntries(String[] keys, String[] values, int size) {
+		this(keys, values, 0, size, null, null);
+	}
+
+	private SortedEntries(String[] keys, String[] values, int from, int to, String low, String high) {
+		this.keys = keys;
+		this.values = values;
+		this.from = from;
+		this.to = to;
+		this.low = low;
+		this.high = high;
+	}
+
+	@Override
+	public int size() {
+		return to - from;
+	}
+
+	@Override
+	public Comparator<? super String> comparator() {
+		return null;
+	}
+
+	@Override
+	public String firstKey() {
+		if (from == to) {
+			throw new NoSuchElementException();
+		}
+		return keys[from];
+	}
+
+	@Override
+	public String lastKey() {
+		if (from == to) {
+			throw new NoSuchElementException();
+		}
+		return keys[to - 1];
+	}
+
+	@Override
+	public String get(Object key) {
+		int i = Arrays.binarySearch(keys, from, to, key);
+		return i >= 0 ? values[i] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return Arrays.binarySearch(keys, from, to, key) >= 0;
+	}
+
+	@Override
+	public SortedMap<String, String> subMap(String fromKey, String toKey) {
+		if (fromKey.compareTo(toKey) > 0) {
+			throw new IllegalArgumentException("fromKey > toKey");
+		}
+		checkInRange(fromKey, true);
+		checkInRange(toKey, false);
+		return new SortedEntries(keys, values, position(fromKey), position(toKey), fromKey, toKey);
+	}
+
+	@Override
+	public SortedMap<String, String> headMap(String toKey) {
+		checkInRange(toKey, false);
+		return new SortedEntries(keys, values, from, position(toKey), low, toKey);
+	}
+
+	@Override
+	public SortedMap<String, String> tailMap(String fromKey) {
+		checkInRange(fromKey, true);
+		return new SortedEntries(keys, values, position(fromKey), to, fromKey, high);
+	}
+
+	/**
+	 * @return the index of the first entry whose key is not below the given one
+	 */
+	private int position(String key) {
+		int i = Arrays.binarySearch(keys, from, to, key);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * The bounds of a view's view must lie within the view's own bounds; as in {@link java.util.TreeMap},
+	 * the exclusive upper bound is itself only allowed as an (exclusive) upper bound.
+	 * @param inclusive true for a lower bound
+	 */
+	private void checkInRange(String key, boolean inclusive) {
+		int c = high == null ? -1 : key.compareTo(high);
+		if ((low != null && key.compareTo(low) < 0) || (inclusive ? c >= 0 : c > 0)) {
+			throw new IllegalArgumentException("Key out of range: " + key);
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return to - from;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int next = from;
+
+					@Override
+					public boolean hasNext() {
+						return next < to;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						if (next >= to) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[next], values[next]);
+						next++;
+						return entry;
+					}
+				};
+			}
+		};
+	}
+}
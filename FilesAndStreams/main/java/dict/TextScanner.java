@@ -0,0 +1,143 @@
+package dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits the lines of a text dictionary file into entries without decoding them first.
+ *
+ * The text is scanned as bytes for the newline and the first ':' of each line, and the handler gets the
+ * positions of the key and the value in the byte buffer; it decodes them into exactly the two strings it keeps,
+ * or copies the bytes somewhere else without creating any objects at all. Line strings, substrings and
+ * decoded character buffers are never created.
+ * This only works for charsets in which the bytes of '\n' and ':' always stand for those characters:
+ * UTF-8 and the single-byte charsets that agree with ASCII on them (see {@link #scannable(Charset)}).
+ *
+ * As with {@link java.io.BufferedReader#readLine()}, a "\r\n" line ending is accepted; the checksum trailer
+ * of {@link DictionaryFiles#commit(java.io.File, java.io.File)} ends the text.
+ *
+ * @author talm
+ *
+ */
+final class TextScanner {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] TRAILER_PREFIX = DictionaryFiles.TRAILER_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Receives the lines of a dictionary file; bytes[start, colon) is the key and bytes[colon + 1, end) the value.
+	 * The bytes are only valid during the call.
+	 */
+	interface LineHandler {
+		/**
+		 * @return false to stop scanning
+		 */
+		boolean line(byte[] bytes, int start, int colon, int end) throws IOException;
+	}
+
+	private TextScanner() {
+	}
+
+	/**
+	 * @return true if text in the charset can be split into lines and entries at the byte level
+	 */
+	static boolean scannable(Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8)
+				|| (charset.newEncoder().maxBytesPerChar() == 1 && Arrays.equals("\n:".getBytes(charset), new byte[] { '\n', ':' }));
+	}
+
+	/**
+	 * @return true if bytes[start, end) are all ASCII, so they mean the same in UTF-8
+	 */
+	static boolean ascii(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scan a whole file, from the channel's current position on, through a buffer that grows to fit the longest line.
+	 */
+	static void scan(ReadableByteChannel channel, LineHandler handler) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		boolean atEnd = false;
+		while (!atEnd) {
+			atEnd = channel.read(buffer) < 0;
+			int length = buffer.position();
+			int next = scan(buffer.array(), 0, length, atEnd, handler);
+			if (next < 0) {
+				return;
+			}
+			//keep the incomplete last line for the next read
+			buffer.flip();
+			buffer.position(next);
+			buffer.compact();
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Scan the lines in bytes[start, end).
+	 * @param atEnd true if the bytes end the text, so that a last line without a newline is complete
+	 * @return the start of the first line that was not scanned (an incomplete last line, or <i>end</i>),
+	 * or -1 if the handler stopped the scan or the checksum trailer was reached
+	 * @throws IOException if a line is not an entry
+	 */
+	static int scan(byte[] bytes, int start, int end, boolean atEnd, LineHandler handler) throws IOException {
+		int lineStart = start;
+		while (lineStart < end) {
+			int newline = indexOf(bytes, (byte) '\n', lineStart, end);
+			if (newline < 0 && !atEnd) {
+				return lineStart;
+			}
+			int lineEnd = newline < 0 ? end : newline;
+			int next = newline < 0 ? end : newline + 1;
+			if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			//split the line at the first ':' character
+			int colon = indexOf(bytes, (byte) ':', lineStart, lineEnd);
+			if (colon < 0) {
+				if (startsWith(bytes, lineStart, lineEnd, TRAILER_PREFIX)) {
+					return -1;
+				}
+				throw new IOException("Malformed dictionary line: " + new String(bytes, lineStart, lineEnd - lineStart));
+			}
+			if (!handler.line(bytes, lineStart, colon, lineEnd)) {
+				return -1;
+			}
+			lineStart = next;
+		}
+		return lineStart;
+	}
+
+	private static int indexOf(byte[] bytes, byte b, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; ++i) {
+			if (bytes[start + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,536 @@
+package dict;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Implements a persistent dictionary whose file is a radix tree (a trie in which chains of single-child nodes
+ * are collapsed into one node with a multi-character label), accessed through a memory mapping.
+ *
+ * Words that share a prefix share the nodes of that prefix, so the file is smaller than a flat list of keys,
+ * and a lookup compares each character of the key once, walking down from the root, instead of comparing
+ * whole keys during a binary search. The children of a node are sorted by their first character, so a
+ * pre-order walk of a subtree lists its keys in {@link String#compareTo(String)} order, which makes
+ * {@link #prefixScan(String, int)} a descent to the prefix's node followed by a walk of its subtree.
+ *
+ * The nodes are read in place from the mapping, so {@link #open()} only maps the file and checks its header:
+ * there is nothing to parse. As in {@link MappedDictionary}, changes are kept in memory (a sorted overlay
+ * and a set of removed keys) and merged with the mapped entries into a new file by {@link #close()};
+ * if nothing changed, the file is left as it is.
+ * The new tree is built in a single pass over the merged, sorted entries, keeping only the nodes on the path
+ * of the last key in memory.
+ *
+ * The file format is (all numbers big-endian, characters are UTF-16 code units):
+ * <pre>
+ * magic:int version:int count:long root:long
+ * node*:
+ *   flags:byte labelLength:int childCount:int
+ *   label:char[labelLength]
+ *   childFirstChar:char[childCount]   (sorted)
+ *   childOffset:long[childCount]      (absolute file offset of each child node)
+ *   valueLength:int value             (UTF-8; only if flags has HAS_VALUE)
+ * </pre>
+ * Nodes are written after their children, so the root is the last node.
+ * The file is followed by the checksum trailer of {@link DictionaryFiles#commit(File, File)}, which, as for
+ * {@link MappedDictionary}, is not verified by {@link #open()}.
+ *
+ * @author talm
+ *
+ */
+public class TrieDictionary implements PersistentDictionary {
+	static final int MAGIC = 0x54524945; // "TRIE"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+
+	private static final int HAS_VALUE = 1;
+	private static final int NODE_HEADER_SIZE = 9;
+
+	private final File file;
+
+	private MappedFile base;
+	private long root;
+	private final TreeMap<String, String> overlay = new TreeMap<String, String>();
+	private final HashSet<String> removed = new HashSet<String>();
+	private long size;
+	// true if there are changes that are not in the mapped file
+	private boolean changed;
+
+	public TrieDictionary(File dictFile) {
+		file = dictFile;
+	}
+
+	@Override
+	public void open() throws IOException {
+		overlay.clear();
+		removed.clear();
+		base = null;
+		size = 0;
+		changed = false;
+
+		if (!file.exists() || file.length() == 0) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			base = new MappedFile(raf.getChannel(), raf.length());
+		} finally {
+			raf.close();
+		}
+		if (base.length() < HEADER_SIZE || base.getInt(0) != MAGIC) {
+			base = null;
+			throw new IOException(file + " is not a trie dictionary file.");
+		}
+		if (base.getInt(4) != VERSION) {
+			base = null;
+			throw new IOException("Unsupported trie dictionary version in " + file);
+		}
+		size = base.getLong(8);
+		root = base.getLong(16);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (changed || !file.exists()) {
+			File temp = new File(file.getPath() + ".tmp");
+			write(temp);
+			DictionaryFiles.commit(temp, file);
+		}
+		overlay.clear();
+		removed.clear();
+		base = null;
+		size = 0;
+		changed = false;
+	}
+
+	@Override
+	public String get(Object key) {
+		String k = (String) key;
+		String value = overlay.get(k);
+		if (value != null || base == null || removed.contains(k)) {
+			return value;
+		}
+		long node = find(k);
+		return node < 0 ? null : new String(valueBytes(node), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		String old = get(key);
+		overlay.put(key, value);
+		changed = true;
+		if (old == null) {
+			size++;
+		}
+		return old;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		//saturated, as Map.size() specifies
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String remove(Object key) {
+		String old = get(key);
+		if (old == null) {
+			return null;
+		}
+		String k = (String) key;
+		overlay.remove(k);
+		if (base != null && find(k) >= 0) {
+			removed.add(k);
+		}
+		size--;
+		changed = true;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		overlay.clear();
+		removed.clear();
+		base = null;
+		size = 0;
+		changed = true;
+	}
+
+	/**
+	 * Walks the mapped subtree of the prefix, skipping the subtrees that are entirely below <i>from</i>,
+	 * and merges in the in-memory changes.
+	 */
+	@Override
+	public Stream<Map.Entry<String, String>> range(String from, String to) {
+		if (to != null && from.compareTo(to) >= 0) {
+			return Stream.empty();
+		}
+		List<Stream<Map.Entry<String, String>>> sources = new ArrayList<Stream<Map.Entry<String, String>>>();
+		sources.add(Keys.range(overlay, from, to));
+		if (base != null) {
+			final Walk walk = new Walk(from, to);
+			Iterator<Map.Entry<String, String>> unchanged = new Iterator<Map.Entry<String, String>>() {
+				@Override
+				public boolean hasNext() {
+					return walk.key != null || walk.advance();
+				}
+
+				@Override
+				public Map.Entry<String, String> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<String, String>(walk.key,
+							new String(valueBytes(walk.node), StandardCharsets.UTF_8));
+					walk.key = null;
+					return entry;
+				}
+			};
+			sources.add(StreamSupport.stream(Spliterators.spliteratorUnknownSize(unchanged,
+					Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false));
+		}
+		return Keys.merge(sources);
+	}
+
+	/*======= Reading the mapped tree ======*/
+
+	private int flags(long node) {
+		return base.getByte(node);
+	}
+
+	private int labelLength(long node) {
+		return base.getInt(node + 1);
+	}
+
+	private int childCount(long node) {
+		return base.getInt(node + 5);
+	}
+
+	private long childChars(long node) {
+		return node + NODE_HEADER_SIZE + 2L * labelLength(node);
+	}
+
+	private long child(long node, int i) {
+		return base.getLong(childChars(node) + 2L * childCount(node) + 8L * i);
+	}
+
+	private byte[] valueBytes(long node) {
+		long pos = childChars(node) + 10L * childCount(node);
+		byte[] value = new byte[base.getInt(pos)];
+		base.get(pos + 4, value);
+		return value;
+	}
+
+	/**
+	 * @return the index of the first child of the node whose first character is not less than <i>c</i>
+	 */
+	private int lowerBound(long node, char c) {
+		long chars = childChars(node);
+		int low = 0, high = childCount(node);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (base.getChar(chars + 2L * mid) < c) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Walk down from the root, matching the key against the labels.
+	 * @return the node of the key, or -1 if the key is not in the mapped tree (changes are not considered)
+	 */
+	private long find(String key) {
+		long node = root;
+		int pos = 0;
+		while (true) {
+			int length = labelLength(node);
+			if (pos + length > key.length()) {
+				return -1;
+			}
+			long label = node + NODE_HEADER_SIZE;
+			for (int i = 0; i < length; ++i) {
+				if (base.getChar(label + 2L * i) != key.charAt(pos + i)) {
+					return -1;
+				}
+			}
+			pos += length;
+			if (pos == key.length()) {
+				return (flags(node) & HAS_VALUE) != 0 ? node : -1;
+			}
+			char c = key.charAt(pos);
+			int i = lowerBound(node, c);
+			if (i == childCount(node) || base.getChar(childChars(node) + 2L * i) != c) {
+				return -1;
+			}
+			node = child(node, i);
+		}
+	}
+
+	private String label(long node) {
+		char[] label = new char[labelLength(node)];
+		for (int i = 0; i < label.length; ++i) {
+			label[i] = base.getChar(node + NODE_HEADER_SIZE + 2L * i);
+		}
+		return new String(label);
+	}
+
+	/**
+	 * A pre-order walk over the mapped keys in [from, to) that were neither removed nor replaced,
+	 * in key order. Only the subtrees that can hold keys in the range are entered.
+	 */
+	private final class Walk {
+		private final String from;
+		private final String to;
+		private final ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		private boolean done;
+		// the current key and its node, once advance() has found one
+		String key;
+		long node;
+
+		Walk(String from, String to) {
+			this.from = from;
+			this.to = to;
+			enter(root, "");
+		}
+
+		/**
+		 * Move to the next key.
+		 * @return false if there are no more keys
+		 */
+		boolean advance() {
+			while (!done && !stack.isEmpty()) {
+				Frame frame = stack.peek();
+				if (!frame.visited) {
+					frame.visited = true;
+					if ((flags(frame.node) & HAS_VALUE) != 0 && frame.path.compareTo(from) >= 0) {
+						if (to != null && frame.path.compareTo(to) >= 0) {
+							done = true;
+						} else if (!removed.contains(frame.path) && !overlay.containsKey(frame.path)) {
+							key = frame.path;
+							node = frame.node;
+							return true;
+						}
+					}
+				} else if (frame.next < childCount(frame.node)) {
+					long child = child(frame.node, frame.next++);
+					enter(child, frame.path + label(child));
+				} else {
+					stack.pop();
+				}
+			}
+			done = true;
+			return false;
+		}
+
+		private void enter(long node, String path) {
+			int n = Math.min(path.length(), from.length());
+			int cmp = path.substring(0, n).compareTo(from.substring(0, n));
+			if (cmp < 0) {
+				//every key in the subtree is below from
+				return;
+			}
+			Frame frame = new Frame(node, path);
+			if (cmp == 0 && path.length() < from.length()) {
+				//the path is a proper prefix of from: skip the children below from's next character
+				frame.next = lowerBound(node, from.charAt(path.length()));
+			}
+			stack.push(frame);
+		}
+	}
+
+	private static final class Frame {
+		final long node;
+		final String path;
+		boolean visited;
+		int next;
+
+		Frame(long node, String path) {
+			this.node = node;
+			this.path = path;
+		}
+	}
+
+	/*======= Writing the tree ======*/
+
+	/**
+	 * Merge the mapped entries with the in-memory changes into a new dictionary file.
+	 * Unchanged values are copied as raw bytes.
+	 */
+	private void write(File target) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(target, "rw");
+		try {
+			raf.setLength(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(raf.getChannel()), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(0); // the root offset, filled in at the end
+			TrieWriter writer = new TrieWriter(out);
+
+			Iterator<Map.Entry<String, String>> changes = overlay.entrySet().iterator();
+			Map.Entry<String, String> change = changes.hasNext() ? changes.next() : null;
+			Walk walk = base != null ? new Walk("", null) : null;
+			String baseKey = walk != null && walk.advance() ? walk.key : null;
+			while (change != null || baseKey != null) {
+				if (baseKey == null || (change != null && change.getKey().compareTo(baseKey) < 0)) {
+					writer.add(change.getKey(), change.getValue().getBytes(StandardCharsets.UTF_8));
+					change = changes.hasNext() ? changes.next() : null;
+				} else {
+					writer.add(baseKey, valueBytes(walk.node));
+					baseKey = walk.advance() ? walk.key : null;
+				}
+			}
+			long rootOffset = writer.finish();
+			out.flush();
+			raf.seek(16);
+			raf.writeLong(rootOffset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Builds a radix tree from keys added in increasing order, writing each node as soon as no later key can
+	 * fall under it. The unwritten nodes always form the path of the last key added.
+	 */
+	private static final class TrieWriter {
+		private final DataOutputStream out;
+		private long position = HEADER_SIZE;
+		private final ArrayList<OpenNode> path = new ArrayList<OpenNode>();
+		private String last = "";
+
+		TrieWriter(DataOutputStream out) {
+			this.out = out;
+			path.add(new OpenNode(0, ""));
+		}
+
+		void add(String key, byte[] value) throws IOException {
+			int common = 0;
+			int n = Math.min(last.length(), key.length());
+			while (common < n && last.charAt(common) == key.charAt(common)) {
+				common++;
+			}
+			//nodes that start at or after the point where the key leaves the last key's path are complete
+			while (path.size() > 1 && top().start >= common) {
+				pop();
+			}
+			OpenNode parent = top();
+			if (parent.start + parent.label.length() > common) {
+				//the key leaves the path in the middle of a label: split the node there
+				int split = common - parent.start;
+				OpenNode tail = new OpenNode(common, parent.label.substring(split));
+				tail.value = parent.value;
+				tail.childChars = parent.childChars;
+				tail.childOffsets = parent.childOffsets;
+				tail.childCount = parent.childCount;
+				parent.label = parent.label.substring(0, split);
+				parent.value = null;
+				parent.childChars = new char[2];
+				parent.childOffsets = new long[2];
+				parent.childCount = 0;
+				parent.addChild(tail.label.charAt(0), writeNode(tail));
+			}
+			if (common == key.length()) {
+				//only the empty key, which comes first, can end above the last key's path: at the root
+				parent.value = value;
+			} else {
+				OpenNode node = new OpenNode(common, key.substring(common));
+				node.value = value;
+				path.add(node);
+			}
+			last = key;
+		}
+
+		/**
+		 * Write the remaining nodes.
+		 * @return the offset of the root
+		 */
+		long finish() throws IOException {
+			while (path.size() > 1) {
+				pop();
+			}
+			return writeNode(path.get(0));
+		}
+
+		private OpenNode top() {
+			return path.get(path.size() - 1);
+		}
+
+		private void pop() throws IOException {
+			OpenNode node = path.remove(path.size() - 1);
+			top().addChild(node.label.charAt(0), writeNode(node));
+		}
+
+		private long writeNode(OpenNode node) throws IOException {
+			long offset = position;
+			out.writeByte(node.value != null ? HAS_VALUE : 0);
+			out.writeInt(node.label.length());
+			out.writeInt(node.childCount);
+			out.writeChars(node.label);
+			for (int i = 0; i < node.childCount; ++i) {
+				out.writeChar(node.childChars[i]);
+			}
+			for (int i = 0; i < node.childCount; ++i) {
+				out.writeLong(node.childOffsets[i]);
+			}
+			position += NODE_HEADER_SIZE + 2L * node.label.length() + 10L * node.childCount;
+			if (node.value != null) {
+				out.writeInt(node.value.length);
+				out.write(node.value);
+				position += 4 + node.value.length;
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * A node on the path of the last key added to a {@link TrieWriter}.
+	 */
+	private static final class OpenNode {
+		final int start; // the length of the key prefix above this node
+		String label;
+		byte[] value;
+		char[] childChars = new char[2];
+		long[] childOffsets = new long[2];
+		int childCount;
+
+		OpenNode(int start, String label) {
+			this.start = start;
+			this.label = label;
+		}
+
+		void addChild(char c, long offset) {
+			if (childCount == childChars.length) {
+				childChars = Arrays.copyOf(childChars, 2 * childCount);
+				childOffsets = Arrays.copyOf(childOffsets, 2 * childCount);
+			}
+			childChars[childCount] = c;
+			childOffsets[childCount] = offset;
+			childCount++;
+		}
+	}
+}
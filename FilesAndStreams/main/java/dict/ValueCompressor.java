@@ -0,0 +1,183 @@
+package dict;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses dictionary values one at a time with Deflate, primed with a preset dictionary that is shared by
+ * all the values of a dictionary file.
+ *
+ * Definitions are short, so on their own they would hardly compress; the preset dictionary holds the words and
+ * phrases that are common across definitions, so even a short value can refer back to them.
+ * It is trained from a sample of the values by {@link #train(Collection, int)}, and stored in the file header.
+ *
+ * Each compressed value starts with a tag byte: values that Deflate does not make smaller are stored as plain UTF-8.
+ * <pre>
+ * STORED utf8
+ * DEFLATED length:varint deflate-data   (length of the UTF-8 bytes)
+ * </pre>
+ *
+ * @author talm
+ *
+ */
+final class ValueCompressor {
+	/** Default maximum size of a trained preset dictionary. */
+	static final int DEFAULT_DICTIONARY_SIZE = 1 << 14;
+	/** Number of values sampled for training. */
+	static final int SAMPLE_SIZE = 10000;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 1;
+	// Deflate can only refer back 32KB, so a larger preset dictionary is useless
+	private static final int MAX_DICTIONARY_SIZE = 1 << 15;
+
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	private final byte[] preset;
+
+	/**
+	 * @param preset the preset dictionary (may be empty)
+	 */
+	ValueCompressor(byte[] preset) {
+		this.preset = preset;
+	}
+
+	byte[] presetDictionary() {
+		return preset;
+	}
+
+	/**
+	 * Build a preset dictionary from the words and word pairs that contribute most to a sample of values
+	 * (by number of occurrences times length). The best ones are placed last, since Deflate encodes
+	 * shorter distances more cheaply.
+	 * @param samples values that are typical of the dictionary
+	 * @param maxSize the maximum size of the preset dictionary, in bytes
+	 */
+	static ValueCompressor train(Collection<String> samples, int maxSize) {
+		maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String sample : samples) {
+			String previous = null;
+			int start = 0;
+			for (int i = 1; i <= sample.length(); ++i) {
+				//a word ends where a run of separators ends, so it carries its separators with it
+				if (i == sample.length()
+						|| (Character.isLetterOrDigit(sample.charAt(i)) && !Character.isLetterOrDigit(sample.charAt(i - 1)))) {
+					String word = sample.substring(start, i);
+					counts.merge(word, 1, Integer::sum);
+					if (previous != null) {
+						counts.merge(previous + word, 1, Integer::sum);
+					}
+					previous = word;
+					start = i;
+				}
+			}
+		}
+
+		List<Map.Entry<String, Integer>> candidates = new ArrayList<Map.Entry<String, Integer>>();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() > 1 && entry.getKey().length() > 2) {
+				candidates.add(entry);
+			}
+		}
+		candidates.sort((a, b) -> Long.compare(score(b), score(a)));
+
+		List<byte[]> chosen = new ArrayList<byte[]>();
+		int size = 0;
+		for (Map.Entry<String, Integer> candidate : candidates) {
+			byte[] bytes = candidate.getKey().getBytes(StandardCharsets.UTF_8);
+			if (size + bytes.length <= maxSize) {
+				chosen.add(bytes);
+				size += bytes.length;
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		for (int i = chosen.size() - 1; i >= 0; --i) {
+			out.write(chosen.get(i), 0, chosen.get(i).length);
+		}
+		return new ValueCompressor(out.toByteArray());
+	}
+
+	private static long score(Map.Entry<String, Integer> candidate) {
+		return (long) candidate.getValue() * candidate.getKey().length();
+	}
+
+	byte[] compress(String value) {
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		if (preset.length > 0) {
+			deflater.setDictionary(preset);
+		}
+		deflater.setInput(utf8);
+		deflater.finish();
+
+		//the compressed value has to beat the stored one, so it never needs much more room than that
+		byte[] out = new byte[6 + utf8.length];
+		int n = 0;
+		out[n++] = DEFLATED;
+		int length = utf8.length;
+		while ((length & ~0x7f) != 0) {
+			out[n++] = (byte) ((length & 0x7f) | 0x80);
+			length >>>= 7;
+		}
+		out[n++] = (byte) length;
+		while (n < out.length && !deflater.finished()) {
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		if (!deflater.finished() || n > utf8.length) {
+			byte[] stored = new byte[1 + utf8.length];
+			stored[0] = STORED;
+			System.arraycopy(utf8, 0, stored, 1, utf8.length);
+			return stored;
+		}
+		byte[] compressed = new byte[n];
+		System.arraycopy(out, 0, compressed, 0, n);
+		return compressed;
+	}
+
+	String decompress(byte[] value, int offset, int length) {
+		if (value[offset] == STORED) {
+			return new String(value, offset + 1, length - 1, StandardCharsets.UTF_8);
+		}
+		int pos = offset + 1;
+		int utf8Length = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = value[pos++] & 0xff;
+			utf8Length |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		//raw Deflate streams do not ask for their dictionary, so it is set up front
+		if (preset.length > 0) {
+			inflater.setDictionary(preset);
+		}
+		inflater.setInput(value, pos, offset + length - pos);
+		byte[] utf8 = new byte[utf8Length];
+		try {
+			int n = 0;
+			while (n < utf8Length) {
+				int inflated = inflater.inflate(utf8, n, utf8Length - n);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IllegalStateException("Compressed dictionary value is truncated");
+				}
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed dictionary value is corrupt", e);
+		}
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,374 @@
+package files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts a file of fixed-width records in place, using a bounded amount of memory (an external merge sort).
+ *
+ * Records are compared by their first <i>keyLength</i> bytes as an unsigned big-endian number
+ * (that is, byte by byte as unsigned values), so a file of 24-bit MSB-first values is sorted with
+ * a record size and key length of 3. Records with equal keys keep their order (the sort is stable).
+ * Bytes after the last whole record are left where they are.
+ *
+ * Memory use is bounded by the budget, not by the file: if the file fits in the budget it is read, sorted and
+ * written back in one go (so a caller that must not hold the whole file in memory has to pass a budget smaller
+ * than the file). Otherwise it is cut into
+ * runs that fit the budget; each run is sorted in memory and spilled to a temporary file (several runs at a time,
+ * if <i>parallelism</i> is more than 1, each with its share of the budget), and the runs are then merged back over
+ * the original file with a heap of run cursors. If there are too many runs to give each a reasonable read buffer,
+ * consecutive runs are first merged into longer ones.
+ * All file access is sequential and goes through large buffers.
+ *
+ * @author talm
+ *
+ */
+public class ExternalSort {
+	public static final long DEFAULT_MEMORY_BUDGET = 1 << 26;
+
+	private static final int MIN_MERGE_BUFFER = 1 << 16; // per run, when merging
+	private static final int MAX_RUN_BYTES = Integer.MAX_VALUE - 8;
+
+	private final int recordSize;
+	private final int keyLength;
+	private final long memoryBudget;
+	private final int parallelism;
+	private final File tempDirectory;
+
+	/**
+	 * Sort whole records, with the default memory budget, on one thread.
+	 * @param recordSize the record size in bytes
+	 */
+	public ExternalSort(int recordSize) {
+		this(recordSize, recordSize, DEFAULT_MEMORY_BUDGET, 1);
+	}
+
+	/**
+	 * @param recordSize the record size in bytes
+	 * @param keyLength the number of leading bytes of a record that it is sorted by
+	 * @param memoryBudget the number of bytes of records (and sort indices) to hold in memory at most
+	 * @param parallelism the number of runs sorted at the same time
+	 */
+	public ExternalSort(int recordSize, int keyLength, long memoryBudget, int parallelism) {
+		this(recordSize, keyLength, memoryBudget, parallelism, null);
+	}
+
+	/**
+	 * @param tempDirectory where runs are spilled, or null for the default temporary-file directory
+	 */
+	public ExternalSort(int recordSize, int keyLength, long memoryBudget, int parallelism, File tempDirectory) {
+		if (recordSize <= 0 || keyLength <= 0 || keyLength > recordSize) {
+			throw new IllegalArgumentException("Bad record size " + recordSize + " or key length " + keyLength);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		this.recordSize = recordSize;
+		this.keyLength = keyLength;
+		this.memoryBudget = memoryBudget;
+		this.parallelism = parallelism;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Sort the records of a file in place. The file's position is not changed.
+	 */
+	public void sort(RandomAccessFile file) throws IOException {
+		FileChannel channel = file.getChannel();
+		long count = channel.size() / recordSize;
+		if (count < 2) {
+			return;
+		}
+		//a run is held twice (unsorted and sorted), with a long and an int of sort index per record
+		long perRun = Math.max(1, memoryBudget / parallelism / (2L * recordSize + 12));
+		int runRecords = (int) Math.min(perRun, MAX_RUN_BYTES / recordSize);
+
+		if (count <= runRecords) {
+			//the file fits in memory
+			byte[] records = new byte[(int) count * recordSize];
+			readFully(channel, records, 0);
+			writeFully(channel, sortRun(records, (int) count), 0);
+			return;
+		}
+
+		List<File> runs = new ArrayList<File>();
+		try {
+			spillRuns(channel, count, runRecords, runs);
+			int fanout = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / MIN_MERGE_BUFFER - 1));
+			while (runs.size() > fanout) {
+				runs = mergePass(runs, fanout);
+			}
+			merge(runs, channel);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/*======= Run generation ======*/
+
+	private void spillRuns(final FileChannel channel, final long count, final int runRecords, List<File> runs) throws IOException {
+		long runCount = (count + runRecords - 1) / runRecords;
+		for (long i = 0; i < runCount; ++i) {
+			runs.add(File.createTempFile("run", ".sort", tempDirectory));
+		}
+		if (parallelism == 1) {
+			for (int i = 0; i < runs.size(); ++i) {
+				spillRun(channel, count, runRecords, i, runs.get(i));
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool((int) Math.min(parallelism, runCount));
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < runs.size(); ++i) {
+				final int run = i;
+				final File runFile = runs.get(i);
+				futures.add(executor.submit(() -> {
+					spillRun(channel, count, runRecords, run, runFile);
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Sorting a run failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sorting runs", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void spillRun(FileChannel channel, long count, int runRecords, int run, File runFile) throws IOException {
+		long first = (long) run * runRecords;
+		int n = (int) Math.min(runRecords, count - first);
+		byte[] records = new byte[n * recordSize];
+		readFully(channel, records, first * recordSize);
+		FileChannel out = FileChannel.open(runFile.toPath(), StandardOpenOption.WRITE);
+		try {
+			writeFully(out, sortRun(records, n), 0);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Sort n records in memory, stably.
+	 * @return the sorted records, in a new array
+	 */
+	private byte[] sortRun(byte[] records, int n) {
+		int[] order = new int[n];
+		if (keyLength <= 4) {
+			//pack each key above its index, so a primitive sort orders by key and then by position
+			//(with the sign bit flipped, so that the signed sort orders 32-bit keys as unsigned)
+			long[] packed = new long[n];
+			for (int i = 0; i < n; ++i) {
+				long key = 0;
+				for (int j = 0; j < keyLength; ++j) {
+					key = (key << 8) | (records[i * recordSize + j] & 0xff);
+				}
+				packed[i] = ((key << 32) | i) ^ Long.MIN_VALUE;
+			}
+			Arrays.sort(packed);
+			for (int i = 0; i < n; ++i) {
+				order[i] = (int) packed[i];
+			}
+		} else {
+			for (int i = 0; i < n; ++i) {
+				order[i] = i;
+			}
+			mergeSort(records, order, new int[n], 0, n);
+		}
+		byte[] sorted = new byte[records.length];
+		for (int i = 0; i < n; ++i) {
+			System.arraycopy(records, order[i] * recordSize, sorted, i * recordSize, recordSize);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Stable merge sort of the record indices in order[from, to) by key.
+	 */
+	private void mergeSort(byte[] records, int[] order, int[] temp, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(records, order, temp, from, middle);
+		mergeSort(records, order, temp, middle, to);
+		if (compare(records, order[middle - 1], records, order[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(order, from, temp, from, to - from);
+		int i = from, j = middle;
+		for (int k = from; k < to; ++k) {
+			if (j == to || (i < middle && compare(records, temp[i], records, temp[j]) <= 0)) {
+				order[k] = temp[i++];
+			} else {
+				order[k] = temp[j++];
+			}
+		}
+	}
+
+	private int compare(byte[] a, int i, byte[] b, int j) {
+		return Arrays.compareUnsigned(a, i * recordSize, i * recordSize + keyLength, b, j * recordSize, j * recordSize + keyLength);
+	}
+
+	/*======= Merging ======*/
+
+	/**
+	 * Merge groups of consecutive runs, so at most <i>fanout</i> runs are left.
+	 */
+	private List<File> mergePass(List<File> runs, int fanout) throws IOException {
+		List<File> merged = new ArrayList<File>();
+		try {
+			for (int i = 0; i < runs.size(); i += fanout) {
+				File run = File.createTempFile("run", ".sort", tempDirectory);
+				merged.add(run);
+				FileChannel out = FileChannel.open(run.toPath(), StandardOpenOption.WRITE);
+				try {
+					merge(runs.subList(i, Math.min(runs.size(), i + fanout)), out);
+				} finally {
+					out.close();
+				}
+			}
+		} catch (IOException e) {
+			for (File run : merged) {
+				run.delete();
+			}
+			throw e;
+		}
+		for (File run : runs) {
+			run.delete();
+		}
+		return merged;
+	}
+
+	/**
+	 * Merge runs into a channel, from position 0. On equal keys, records of earlier runs come first.
+	 */
+	private void merge(List<File> runs, FileChannel out) throws IOException {
+		int bufferRecords = (int) Math.max(1, Math.min(MAX_RUN_BYTES / recordSize,
+				memoryBudget / (runs.size() + 1) / recordSize));
+		PriorityQueue<RunCursor> heads = new PriorityQueue<RunCursor>(runs.size());
+		List<RunCursor> cursors = new ArrayList<RunCursor>();
+		try {
+			for (int i = 0; i < runs.size(); ++i) {
+				RunCursor cursor = new RunCursor(runs.get(i), i, bufferRecords);
+				cursors.add(cursor);
+				if (cursor.advance()) {
+					heads.add(cursor);
+				}
+			}
+			byte[] buffer = new byte[bufferRecords * recordSize];
+			int length = 0;
+			long position = 0;
+			while (!heads.isEmpty()) {
+				RunCursor cursor = heads.poll();
+				System.arraycopy(cursor.buffer, cursor.offset, buffer, length, recordSize);
+				length += recordSize;
+				if (length == buffer.length) {
+					writeFully(out, buffer, length, position);
+					position += length;
+					length = 0;
+				}
+				if (cursor.advance()) {
+					heads.add(cursor);
+				}
+			}
+			writeFully(out, buffer, length, position);
+		} finally {
+			for (RunCursor cursor : cursors) {
+				cursor.channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of a run through a buffer; the current record is buffer[offset, offset + recordSize).
+	 */
+	private final class RunCursor implements Comparable<RunCursor> {
+		final FileChannel channel;
+		final int run;
+		final byte[] buffer;
+		int offset;
+		int length;
+		long position;
+
+		RunCursor(File file, int run, int bufferRecords) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.run = run;
+			buffer = new byte[bufferRecords * recordSize];
+			offset = length = 0;
+		}
+
+		/**
+		 * Move to the next record.
+		 * @return false if the run is exhausted
+		 */
+		boolean advance() throws IOException {
+			offset += recordSize;
+			if (offset < length) {
+				return true;
+			}
+			ByteBuffer fill = ByteBuffer.wrap(buffer);
+			while (fill.hasRemaining()) {
+				int n = channel.read(fill, position + fill.position());
+				if (n < 0) {
+					break;
+				}
+			}
+			position += fill.position();
+			length = fill.position() - fill.position() % recordSize;
+			offset = 0;
+			return length > 0;
+		}
+
+		@Override
+		public int compareTo(RunCursor other) {
+			int c = Arrays.compareUnsigned(buffer, offset, offset + keyLength, other.buffer, other.offset, other.offset + keyLength);
+			return c != 0 ? c : Integer.compare(run, other.run);
+		}
+	}
+
+	/*======= I/O ======*/
+
+	private static void readFully(FileChannel channel, byte[] bytes, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("File ended while it was sorted");
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, byte[] bytes, long position) throws IOException {
+		writeFully(channel, bytes, bytes.length, position);
+	}
+
+	private static void writeFully(FileChannel channel, byte[] bytes, int length, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package files;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Sorts files of unsigned 8-bit or 24-bit (MSB first) values in place, on all processors, by memory-mapping them.
+ * Once the file is mapped, values are read and written as memory, so no system calls are made per value.
+ * The file must fit in the virtual address space; it is mapped in segments of whole values, since a single
+ * mapping covers at most 2GB.
+ *
+ * Bytes are counting-sorted: the histogram is computed by a fork/join task tree over disjoint regions of the file,
+ * and the sorted values are written back by another, each task filling its own region.
+ *
+ * 24-bit values are sorted by an in-place MSD radix sort (American flag sort), one byte at a time.
+ * The histogram of the top byte is computed in parallel and the values are permuted into their 256 buckets;
+ * the buckets are disjoint regions, so they are then sorted by separate fork/join tasks, which split them again
+ * by the middle byte. The values in a bucket of the last level share their top two bytes, so the bucket is
+ * rewritten from a histogram of the low byte rather than permuted. Small buckets are insertion-sorted.
+ *
+ * @author talm
+ *
+ */
+public class MappedRadixSort {
+	private static final int SEGMENT_BITS = 28; // values per mapped segment, as a power of two
+	private static final long PARALLEL_THRESHOLD = 1 << 16; // values handled by a single task
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private MappedRadixSort() {
+	}
+
+	/**
+	 * Treat the file as an array of (unsigned) 8-bit values and sort them in place.
+	 */
+	public static void sortBytes(RandomAccessFile file) throws IOException {
+		sortBytes(file, SEGMENT_BITS);
+	}
+
+	/**
+	 * Treat the file as an array of unsigned 24-bit values (stored MSB first) and sort them in place.
+	 * Bytes after the last whole value are left where they are.
+	 */
+	public static void sortTriBytes(RandomAccessFile file) throws IOException {
+		sortTriBytes(file, SEGMENT_BITS);
+	}
+
+	static void sortBytes(RandomAccessFile file, int segmentBits) throws IOException {
+		Values values = new Values(file.getChannel(), 1, segmentBits);
+		if (values.count < 2) {
+			return;
+		}
+		long[] counts = ForkJoinPool.commonPool().invoke(new Histogram(values, 0, values.count, 0));
+		long[] starts = new long[257];
+		for (int b = 0; b < 256; ++b) {
+			starts[b + 1] = starts[b] + counts[b];
+		}
+		ForkJoinPool.commonPool().invoke(new Fill(values, starts, 0, values.count));
+	}
+
+	static void sortTriBytes(RandomAccessFile file, int segmentBits) throws IOException {
+		Values values = new Values(file.getChannel(), 3, segmentBits);
+		if (values.count < 2) {
+			return;
+		}
+		long[] counts = ForkJoinPool.commonPool().invoke(new Histogram(values, 0, values.count, 16));
+		ForkJoinPool.commonPool().invoke(new RadixSort(values, 0, values.count, 16, counts));
+	}
+
+	/**
+	 * The values of a mapped file.
+	 */
+	private static final class Values {
+		final int width;
+		final long count;
+		final int segmentBits;
+		final long segmentMask;
+		final MappedByteBuffer[] segments;
+
+		Values(FileChannel channel, int width, int segmentBits) throws IOException {
+			this.width = width;
+			this.segmentBits = segmentBits;
+			segmentMask = (1L << segmentBits) - 1;
+			count = channel.size() / width;
+			segments = new MappedByteBuffer[(int) ((count + segmentMask) >>> segmentBits)];
+			for (int i = 0; i < segments.length; ++i) {
+				long first = (long) i << segmentBits;
+				long length = Math.min(segmentMask + 1, count - first) * width;
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, first * width, length);
+			}
+		}
+
+		int get(long i) {
+			MappedByteBuffer segment = segments[(int) (i >>> segmentBits)];
+			int offset = (int) (i & segmentMask) * width;
+			if (width == 1) {
+				return segment.get(offset) & 0xff;
+			}
+			return ((segment.get(offset) & 0xff) << 16) | ((segment.get(offset + 1) & 0xff) << 8) | (segment.get(offset + 2) & 0xff);
+		}
+
+		void set(long i, int value) {
+			MappedByteBuffer segment = segments[(int) (i >>> segmentBits)];
+			int offset = (int) (i & segmentMask) * width;
+			if (width == 1) {
+				segment.put(offset, (byte) value);
+				return;
+			}
+			segment.put(offset, (byte) (value >>> 16));
+			segment.put(offset + 1, (byte) (value >>> 8));
+			segment.put(offset + 2, (byte) value);
+		}
+	}
+
+	/**
+	 * Count the values in [from, to) by the byte at <i>shift</i>.
+	 */
+	private static final class Histogram extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final Values values;
+		private final long from;
+		private final long to;
+		private final int shift;
+
+		Histogram(Values values, long from, long to, int shift) {
+			this.values = values;
+			this.from = from;
+			this.to = to;
+			this.shift = shift;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (to - from <= PARALLEL_THRESHOLD) {
+				long[] counts = new long[256];
+				for (long i = from; i < to; ++i) {
+					counts[(values.get(i) >>> shift) & 0xff]++;
+				}
+				return counts;
+			}
+			long middle = (from + to) >>> 1;
+			Histogram left = new Histogram(values, from, middle, shift);
+			left.fork();
+			long[] counts = new Histogram(values, middle, to, shift).compute();
+			long[] leftCounts = left.join();
+			for (int b = 0; b < 256; ++b) {
+				counts[b] += leftCounts[b];
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Write the sorted bytes into [from, to): byte b goes to [starts[b], starts[b+1]).
+	 */
+	private static final class Fill extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Values values;
+		private final long[] starts;
+		private final long from;
+		private final long to;
+
+		Fill(Values values, long[] starts, long from, long to) {
+			this.values = values;
+			this.starts = starts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_THRESHOLD) {
+				int b = 0;
+				while (starts[b + 1] <= from) {
+					b++;
+				}
+				for (long i = from; i < to; ++i) {
+					while (starts[b + 1] <= i) {
+						b++;
+					}
+					values.set(i, b);
+				}
+				return;
+			}
+			long middle = (from + to) >>> 1;
+			invokeAll(new Fill(values, starts, from, middle), new Fill(values, starts, middle, to));
+		}
+	}
+
+	/**
+	 * Sort [from, to) by the bytes from <i>shift</i> down; the values agree on all the bytes above it.
+	 */
+	private static final class RadixSort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Values values;
+		private final long from;
+		private final long to;
+		private final int shift;
+		private long[] counts; // the histogram of [from, to) at shift, if already known
+
+		RadixSort(Values values, long from, long to, int shift, long[] counts) {
+			this.values = values;
+			this.from = from;
+			this.to = to;
+			this.shift = shift;
+			this.counts = counts;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from < INSERTION_SORT_THRESHOLD) {
+				insertionSort();
+				return;
+			}
+			if (counts == null) {
+				counts = new long[256];
+				for (long i = from; i < to; ++i) {
+					counts[(values.get(i) >>> shift) & 0xff]++;
+				}
+			}
+			if (shift == 0) {
+				//the values only differ in the low byte, so they can be rewritten from its histogram
+				int high = values.get(from) & ~0xff;
+				long i = from;
+				for (int b = 0; b < 256; ++b) {
+					for (long end = i + counts[b]; i < end; ++i) {
+						values.set(i, high | b);
+					}
+				}
+				return;
+			}
+			permute();
+
+			List<RadixSort> large = new ArrayList<RadixSort>();
+			long start = from;
+			for (int b = 0; b < 256; ++b) {
+				long end = start + counts[b];
+				if (end - start > 1) {
+					RadixSort bucket = new RadixSort(values, start, end, shift - 8, null);
+					if (end - start > PARALLEL_THRESHOLD) {
+						large.add(bucket);
+					} else {
+						bucket.compute();
+					}
+				}
+				start = end;
+			}
+			invokeAll(large);
+		}
+
+		/**
+		 * Move every value into the bucket of its byte at <i>shift</i>, following cycles of displaced values.
+		 */
+		private void permute() {
+			long[] next = new long[256];
+			long[] end = new long[256];
+			long pos = from;
+			for (int b = 0; b < 256; ++b) {
+				next[b] = pos;
+				pos += counts[b];
+				end[b] = pos;
+			}
+			for (int b = 0; b < 256; ++b) {
+				while (next[b] < end[b]) {
+					int value = values.get(next[b]);
+					int digit = (value >>> shift) & 0xff;
+					while (digit != b) {
+						long target = next[digit]++;
+						int displaced = values.get(target);
+						values.set(target, value);
+						value = displaced;
+						digit = (value >>> shift) & 0xff;
+					}
+					values.set(next[b]++, value);
+				}
+			}
+		}
+
+		private void insertionSort() {
+			for (long i = from + 1; i < to; ++i) {
+				int value = values.get(i);
+				long j = i - 1;
+				while (j >= from && values.get(j) > value) {
+					values.set(j + 1, values.get(j));
+					j--;
+				}
+				values.set(j + 1, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A page-cached random-access view of a file, for algorithms that read and write single values
+ * all over a file that may be too large for memory.
+ *
+ * The file is read and written in fixed-size pages; a pool of at most <i>memoryBudget / pageSize</i> pages
+ * is kept in memory, and when it is full the least recently used page is dropped to make room
+ * (written back first if it was changed). A value access that hits the pool makes no system call at all.
+ * Changes reach the file when their page is evicted, or on {@link #flush()} / {@link #close()}.
+ *
+ * The view does not change the length of the file, and the file must not be changed
+ * by other means while the view is open. Closing the view does not close the file.
+ *
+ * @author talm
+ *
+ */
+public class PagedFile implements Closeable {
+	public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+	public static final long DEFAULT_MEMORY_BUDGET = 1 << 24;
+
+	private static final class Page {
+		final long index;
+		final byte[] data;
+		final int length; // the number of valid bytes (the last page may be short)
+		boolean dirty;
+
+		Page(long index, byte[] data, int length) {
+			this.index = index;
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int pageBits;
+	private final int maxPages;
+	private final long length;
+	// pages in least-recently-used order
+	private final LinkedHashMap<Long, Page> pool = new LinkedHashMap<Long, Page>(16, 0.75f, true);
+	// the page of the last access, which is usually the page of the next one
+	private Page last;
+
+	private long pageReads;
+	private long pageWrites;
+
+	public PagedFile(RandomAccessFile file) throws IOException {
+		this(file, DEFAULT_PAGE_SIZE, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param file the file to view
+	 * @param pageSize the page size in bytes, a power of two
+	 * @param memoryBudget the maximum number of bytes of pages kept in memory (at least one page is kept)
+	 */
+	public PagedFile(RandomAccessFile file, int pageSize, long memoryBudget) throws IOException {
+		if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+		}
+		channel = file.getChannel();
+		this.pageSize = pageSize;
+		pageBits = Integer.numberOfTrailingZeros(pageSize);
+		maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / pageSize));
+		length = channel.size();
+	}
+
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * @return the unsigned byte at a position
+	 */
+	public int getByte(long pos) throws IOException {
+		return page(pos).data[(int) (pos & (pageSize - 1))] & 0xff;
+	}
+
+	/**
+	 * @return the unsigned 24-bit value (stored MSB first) at a position
+	 */
+	public int getTriByte(long pos) throws IOException {
+		int offset = (int) (pos & (pageSize - 1));
+		if (offset > pageSize - 3) {
+			//straddles two pages
+			return (getByte(pos) << 16) | (getByte(pos + 1) << 8) | getByte(pos + 2);
+		}
+		byte[] data = page(pos).data;
+		return ((data[offset] & 0xff) << 16) | ((data[offset + 1] & 0xff) << 8) | (data[offset + 2] & 0xff);
+	}
+
+	/**
+	 * Set the byte at a position to the low 8 bits of <i>b</i>.
+	 */
+	public void put(long pos, int b) throws IOException {
+		Page page = page(pos);
+		page.data[(int) (pos & (pageSize - 1))] = (byte) b;
+		page.dirty = true;
+	}
+
+	/**
+	 * Set the 24-bit value (stored MSB first) at a position to the low 24 bits of <i>value</i>.
+	 */
+	public void putTriByte(long pos, int value) throws IOException {
+		int offset = (int) (pos & (pageSize - 1));
+		if (offset > pageSize - 3) {
+			put(pos, value >>> 16);
+			put(pos + 1, value >>> 8);
+			put(pos + 2, value);
+			return;
+		}
+		Page page = page(pos);
+		page.data[offset] = (byte) (value >>> 16);
+		page.data[offset + 1] = (byte) (value >>> 8);
+		page.data[offset + 2] = (byte) value;
+		page.dirty = true;
+	}
+
+	/**
+	 * Write all changed pages back to the file. The pages stay in the pool.
+	 */
+	public void flush() throws IOException {
+		for (Page page : pool.values()) {
+			writeBack(page);
+		}
+	}
+
+	/**
+	 * Write all changed pages back to the file and empty the pool. The file stays open.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		pool.clear();
+		last = null;
+	}
+
+	/**
+	 * @return the number of pages read from the file so far
+	 */
+	public long pageReads() {
+		return pageReads;
+	}
+
+	/**
+	 * @return the number of pages written to the file so far
+	 */
+	public long pageWrites() {
+		return pageWrites;
+	}
+
+	/*======= Page pool ======*/
+
+	private Page page(long pos) throws IOException {
+		if (pos < 0 || pos >= length) {
+			throw new IndexOutOfBoundsException("Position " + pos + " is outside a file of length " + length);
+		}
+		long index = pos >>> pageBits;
+		Page page = last;
+		if (page != null && page.index == index) {
+			return page;
+		}
+		page = pool.get(index);
+		if (page == null) {
+			page = load(index);
+		}
+		last = page;
+		return page;
+	}
+
+	private Page load(long index) throws IOException {
+		byte[] data = null;
+		if (pool.size() >= maxPages) {
+			//reuse the buffer of the least recently used page
+			Iterator<Map.Entry<Long, Page>> eldest = pool.entrySet().iterator();
+			Page evicted = eldest.next().getValue();
+			writeBack(evicted);
+			eldest.remove();
+			data = evicted.data;
+		}
+		if (data == null) {
+			data = new byte[pageSize];
+		}
+		long start = index << pageBits;
+		Page page = new Page(index, data, (int) Math.min(pageSize, length - start));
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, page.length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				throw new IOException("File ended before its page " + index);
+			}
+		}
+		pageReads++;
+		pool.put(index, page);
+		return page;
+	}
+
+	private void writeBack(Page page) throws IOException {
+		if (!page.dirty) {
+			return;
+		}
+		long start = page.index << pageBits;
+		ByteBuffer buffer = ByteBuffer.wrap(page.data, 0, page.length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, start + buffer.position());
+		}
+		page.dirty = false;
+		pageWrites++;
+	}
+}
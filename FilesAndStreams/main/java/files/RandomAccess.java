@@ -2,118 +2,207 @@ package files;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 public class RandomAccess {
+	private static final int BUFFER_SIZE = 1 << 20; // bytes read or written per system call
+	// small pages, so the pool holds a page for each of the 256 cursors of a radix sort pass with room to spare
+	private static final int SORT_PAGE_SIZE = 1 << 14;
+	private static final int IN_MEMORY_VALUES = 1 << 16; // ranges sorted in a buffer by sortTriBytes
 	
 	/**
 	 * Treat the file as an array of (unsigned) 8-bit values and sort them 
-	 * in-place using a bubble-sort algorithm.
-	 * You may not read the whole file into memory! 
+	 * in-place using a counting sort: one sequential pass counts the occurrences of each value,
+	 * and a second sequential pass writes each value back as many times as it occurred.
+	 * The file is read and written through a fixed-size buffer, so it is never read into memory as a whole,
+	 * and sorting takes O(n) time.
 	 * @param file
 	 */
 	public static void sortBytes(RandomAccessFile file) throws IOException {
 		try {
-			long current = 0, pos = 0;
-			int a, b;
-			file.seek(current);
-			for (int i = 0; i < file.length(); i++) {
-				a = file.read();
-				for (int j = (int) pos; j < file.length(); j++) {
-					//find the minimum byte in the file
-					file.seek(pos);
-					b = file.read();
-					//if a is bigger then b switch them
-					if(a > b){
-						file.seek(pos);
-						file.write(a);
-						file.seek(current);
-						file.write(b);
-						a = b;
-					}
-					//advance pos
-					pos++;
+			FileChannel channel = file.getChannel();
+			long length = file.length();
+			byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, length))];
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+			//count the occurrences of each value
+			long[] counts = new long[256];
+			long pos = 0;
+			while (pos < length) {
+				buffer.clear();
+				int n = channel.read(buffer, pos);
+				if (n < 0) {
+					break;
 				}
-				//advance current
-				current++;
-				//reset pos to the next byte, without the smallest one we just found
-				pos = current+1;
-				//avoid seeking in the last iteration to evade an exception
-				if(i < file.length()-1) {
-					file.seek(current);
+				for (int i = 0; i < n; i++) {
+					counts[bytes[i] & 0xff]++;
+				}
+				pos += n;
+			}
+
+			//write the values back in order, a buffer at a time
+			pos = 0;
+			buffer.clear();
+			for (int value = 0; value < 256; value++) {
+				long remaining = counts[value];
+				while (remaining > 0) {
+					int n = (int) Math.min(remaining, buffer.remaining());
+					Arrays.fill(bytes, buffer.position(), buffer.position() + n, (byte) value);
+					buffer.position(buffer.position() + n);
+					remaining -= n;
+					if (!buffer.hasRemaining()) {
+						pos = writeFully(channel, buffer, pos);
+					}
 				}
 			}
+			writeFully(channel, buffer, pos);
 		} catch (IOException e) {
 			//print err message to system.err
 			System.err.println("Error: " + e);
 		}
 	}
+
+	/**
+	 * Write the contents of a buffer (up to its position) at a file position, and clear it.
+	 * @return the file position after the written bytes
+	 */
+	private static long writeFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			pos += channel.write(buffer, pos);
+		}
+		buffer.clear();
+		return pos;
+	}
 	
 	/**
 	 * Treat the file as an array of unsigned 24-bit values (stored MSB first) and sort
-	 * them in-place using a bubble-sort algorithm. 
-	 * You may not read the whole file into memory! 
+	 * them in-place using an MSD radix sort (American flag sort), one byte at a time:
+	 * a pass counts the values of each range by the byte, and a second pass moves every value into the
+	 * part of the range that holds its byte, following cycles of displaced values. Each range is then sorted
+	 * by the next byte; ranges small enough to be read into a small buffer are sorted in memory.
+	 * The values are accessed through a {@link PagedFile}; every pass moves through the range with one cursor
+	 * per byte value, each within a cached page, so the file is read and written a page at a time,
+	 * a few times over, and sorting takes O(n) time.
+	 * You may not read the whole file into memory! Memory use is bounded by the page pool.
 	 * @param file
 	 * @throws IOException
 	 */
 	public static void sortTriBytes(RandomAccessFile file) throws IOException {
 		try {
-			long current = 0, pos = 3;
-			int a = 0, b = 0, aSum = 0, bSum = 0;
-			file.seek(current);
-
-			//outer loop to find the minimum each iteration
-			for (int i = 0; i < file.length()/3 - 1; i++) {
-
-				//set a the value of the first 24-bit value
-				for (int m = 0; m < 3; m++) {
-					a = file.readUnsignedByte();
-					aSum += a;
-					if(m != 2){
-						aSum <<= 8;
-					}
-				}
+			PagedFile paged = new PagedFile(file, SORT_PAGE_SIZE, PagedFile.DEFAULT_MEMORY_BUDGET);
+			try {
+				radixSort(paged, 0, paged.length() / 3, 16);
+			} finally {
+				paged.close();
+			}
+		} catch (IOException e) {
+			//print err message to system.err
+			System.err.println("Error: " + e);
+		}
+	}
 
-				//inner loop to compare the minimum with all the other values, and switch if needed
-				for (int j = i ; j < file.length()/3 - 1; j++) {
-					//find the minimum byte in the file
-					file.seek(pos);
+	/**
+	 * Treat the file as an array of fixed-width records and sort them in-place by a key prefix, compared as
+	 * an unsigned big-endian number, using an external merge sort (see {@link ExternalSort}).
+	 * Unlike {@link #sortTriBytes(RandomAccessFile)}, this does read a file of up to
+	 * {@link ExternalSort#DEFAULT_MEMORY_BUDGET} bytes into memory and sorts it there in one go;
+	 * larger files are sorted in runs of that size, spilled to temporary files and merged back.
+	 * @param file
+	 * @param recordSize the record size in bytes
+	 * @param keyLength the number of leading bytes of a record that it is sorted by
+	 * @throws IOException
+	 */
+	public static void sortRecords(RandomAccessFile file, int recordSize, int keyLength) throws IOException {
+		try {
+			new ExternalSort(recordSize, keyLength, ExternalSort.DEFAULT_MEMORY_BUDGET, 1).sort(file);
+		} catch (IOException e) {
+			//print err message to system.err
+			System.err.println("Error: " + e);
+		}
+	}
 
-					//set b the value of the first 24-bit value
-					for (int k = 0; k < 3; k++) {
-						b = file.readUnsignedByte();
-						bSum += b;
-						if(k != 2){
-							bSum <<= 8;
-						}
-					}
+	/**
+	 * Sort the 24-bit values [from, to) by their bytes from <i>shift</i> down; they agree on the bytes above it.
+	 */
+	private static void radixSort(PagedFile file, long from, long to, int shift) throws IOException {
+		if (to - from <= IN_MEMORY_VALUES) {
+			int[] values = new int[(int) (to - from)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = file.getTriByte(3 * (from + i));
+			}
+			Arrays.sort(values);
+			for (int i = 0; i < values.length; i++) {
+				file.putTriByte(3 * (from + i), values[i]);
+			}
+			return;
+		}
 
-					//if a is bigger then b switch them
-					if(aSum > bSum){
-						file.seek(pos);
-						//write into file byte by byte with bitwise operations
-						file.write((aSum & 0xff0000) >> 16);
-						file.write((aSum & 0xff00) >> 8);
-						file.write((aSum & 0xff));
-						file.seek(current);
-						file.write((bSum & 0xff0000) >> 16);
-						file.write((bSum & 0xff00) >> 8);
-						file.write((bSum & 0xff));
-						aSum = bSum;
-					}
-					//advance pos and reset bSum
-					pos += 3;
-					bSum = 0;
+		long[] counts = new long[256];
+		for (long i = from; i < to; i++) {
+			counts[(file.getTriByte(3 * i) >>> shift) & 0xff]++;
+		}
+		long[] next = new long[256];
+		long[] end = new long[256];
+		long pos = from;
+		for (int b = 0; b < 256; b++) {
+			next[b] = pos;
+			pos += counts[b];
+			end[b] = pos;
+		}
+		for (int b = 0; b < 256; b++) {
+			while (next[b] < end[b]) {
+				int value = file.getTriByte(3 * next[b]);
+				int digit = (value >>> shift) & 0xff;
+				//move the value to its bucket, and carry on with the one it displaces
+				while (digit != b) {
+					long target = next[digit]++;
+					int displaced = file.getTriByte(3 * target);
+					file.putTriByte(3 * target, value);
+					value = displaced;
+					digit = (value >>> shift) & 0xff;
 				}
-				//advance current and reset aSum
-				current += 3;
-				aSum = 0;
-				//reset pos to the next byte, without the smallest one
-				pos = current + 3;
-				//avoid seeking in the last iteration to evade an exception
-				if(i < file.length()-1) {
-					file.seek(current);
+				file.putTriByte(3 * next[b]++, value);
+			}
+		}
+
+		if (shift > 0) {
+			long start = from;
+			for (int b = 0; b < 256; b++) {
+				if (counts[b] > 1) {
+					radixSort(file, start, start + counts[b], shift - 8);
 				}
+				start += counts[b];
 			}
+		}
+	}
+
+	/**
+	 * Like {@link #sortBytes(RandomAccessFile)}, but memory-maps the file and sorts it on all processors
+	 * (see {@link MappedRadixSort}). The file must fit in the virtual address space.
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void parallelSortBytes(RandomAccessFile file) throws IOException {
+		try {
+			MappedRadixSort.sortBytes(file);
+		} catch (IOException e) {
+			//print err message to system.err
+			System.err.println("Error: " + e);
+		}
+	}
+
+	/**
+	 * Like {@link #sortTriBytes(RandomAccessFile)}, but memory-maps the file and sorts it in place
+	 * with a parallel radix sort (see {@link MappedRadixSort}). The file must fit in the virtual address space.
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void parallelSortTriBytes(RandomAccessFile file) throws IOException {
+		try {
+			MappedRadixSort.sortTriBytes(file);
 		} catch (IOException e) {
 			//print err message to system.err
 			System.err.println("Error: " + e);
@@ -0,0 +1,83 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+	public final static int NUM_KEYS = 10000;
+
+	@Test
+	public void noFalseNegatives() {
+		BloomFilter filter = BloomFilter.create(NUM_KEYS, 0.01);
+		for (int i = 0; i < NUM_KEYS; ++i) {
+			filter.add("word" + i);
+		}
+		for (int i = 0; i < NUM_KEYS; ++i) {
+			assertTrue("Missing key word" + i, filter.mightContain("word" + i));
+		}
+	}
+
+	@Test
+	public void falsePositiveRate() {
+		BloomFilter filter = BloomFilter.create(NUM_KEYS, 0.01);
+		for (int i = 0; i < NUM_KEYS; ++i) {
+			filter.add("word" + i);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < NUM_KEYS; ++i) {
+			if (filter.mightContain("other" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < NUM_KEYS * 0.02);
+	}
+
+	@Test
+	public void persistence() throws IOException {
+		File dictFile = File.createTempFile("BloomTest", ".dict");
+		File filterFile = new File(dictFile.getPath() + ".bloom");
+		File temp = new File(dictFile.getPath() + ".tmp");
+		TreeMap<String, String> entries = new TreeMap<String, String>();
+		entries.put("hello", "world");
+		DictionaryFiles.write(temp, entries, DictionaryFormat.TEXT);
+		DictionaryFiles.commit(temp, dictFile);
+
+		BloomFilter filter = BloomFilter.create(NUM_KEYS, 0.05);
+		filter.add("hello");
+		filter.write(filterFile, dictFile);
+
+		BloomFilter loaded = BloomFilter.read(filterFile, dictFile);
+		assertNotNull(loaded);
+		assertTrue(loaded.mightContain("hello"));
+
+		// A filter saved for another version of the dictionary must not be used,
+		// even if the new version has the same length and modification time
+		long modified = dictFile.lastModified();
+		entries.put("hello", "there");
+		DictionaryFiles.write(temp, entries, DictionaryFormat.TEXT);
+		DictionaryFiles.commit(temp, dictFile);
+		dictFile.setLastModified(modified);
+		assertNull(BloomFilter.read(filterFile, dictFile));
+
+		// Nor a damaged filter
+		filter.write(filterFile, dictFile);
+		DictionaryFiles.previousGeneration(filterFile).delete();
+		RandomAccessFile raf = new RandomAccessFile(filterFile, "rw");
+		raf.setLength(raf.length() / 2);
+		raf.close();
+		assertNull(BloomFilter.read(filterFile, dictFile));
+
+		filterFile.delete();
+		DictionaryFiles.previousGeneration(filterFile).delete();
+		dictFile.delete();
+		DictionaryFiles.previousGeneration(dictFile).delete();
+	}
+}
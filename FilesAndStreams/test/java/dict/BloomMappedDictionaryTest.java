@@ -0,0 +1,12 @@
+package dict;
+
+
+import java.io.File;
+import java.io.IOException;
+
+public class BloomMappedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new MappedDictionary(dictFile, 0.01);
+	}
+}
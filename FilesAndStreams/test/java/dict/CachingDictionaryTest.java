@@ -0,0 +1,49 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		// A small cache, so the tests go through promotion and eviction.
+		return new CachingDictionary(new InMemoryDictionary(dictFile), 16);
+	}
+
+	@Test
+	public void statisticsTest() throws Exception {
+		dictFile.delete();
+		CachingDictionary dict = new CachingDictionary(new InMemoryDictionary(dictFile), 10);
+		dict.open();
+		for (int i = 0; i < 100; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+
+		// A hot key stays cached while many cold keys pass through
+		for (int i = 0; i < 100; ++i) {
+			assertEquals("def0", dict.get("word0"));
+			assertEquals("def" + i, dict.get("word" + i));
+		}
+		assertTrue("Hot key should be served from the cache", dict.hitCount() >= 98);
+		assertTrue("Cold keys should be evicted", dict.evictionCount() > 80);
+
+		// Misses are cached, and invalidated by put
+		assertEquals(null, dict.get("missing"));
+		long misses = dict.missCount();
+		assertEquals(null, dict.get("missing"));
+		assertEquals(misses, dict.missCount());
+		dict.put("missing", "found");
+		assertEquals("found", dict.get("missing"));
+
+		dict.remove("word0");
+		assertEquals(null, dict.get("word0"));
+		dict.close();
+		dictFile.delete();
+	}
+}
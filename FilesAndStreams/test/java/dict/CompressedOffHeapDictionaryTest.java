@@ -0,0 +1,41 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompressedOffHeapDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new OffHeapDictionary(dictFile, DictionaryFormat.BINARY_COMPRESSED);
+	}
+
+	@Test
+	public void trainedOnReopenTest() throws Exception {
+		dictFile.delete();
+		OffHeapDictionary dict = new OffHeapDictionary(dictFile, DictionaryFormat.BINARY_COMPRESSED);
+		dict.open();
+		for (int i = 0; i < 2000; ++i) {
+			dict.put("word" + i, "a definition that repeats itself, number " + i + " of the dictionary definitions");
+		}
+		dict.close();
+		assertEquals(DictionaryFormat.BINARY_COMPRESSED, DictionaryFormat.detect(dictFile));
+		assertEquals("The file should carry a trained preset dictionary", true,
+				DictionaryFiles.compressor(dictFile).presetDictionary().length > 0);
+
+		dict.open();
+		assertEquals(2000, dict.size());
+		assertEquals("a definition that repeats itself, number 1234 of the dictionary definitions", dict.get("word1234"));
+		dict.put("word1234", "changed");
+		dict.close();
+		dict.open();
+		assertEquals("changed", dict.get("word1234"));
+		assertEquals("a definition that repeats itself, number 7 of the dictionary definitions", dict.get("word7"));
+		dict.close();
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,54 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new ConcurrentDictionary(dictFile);
+	}
+
+	/**
+	 * Several threads write disjoint keys while others read; nothing may be lost.
+	 */
+	@Test
+	public void concurrentWritersTest() throws Exception {
+		final int threads = 4, perThread = 2000;
+		dictFile.delete();
+		final PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int id = t;
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; ++i) {
+						dict.put(id + "-" + i, "def " + i);
+						dict.get(((id + 1) % threads) + "-" + i);
+					}
+				}
+			});
+		}
+		for (Thread worker : workers) worker.start();
+		for (Thread worker : workers) worker.join();
+
+		assertEquals(threads * perThread, dict.size());
+		dict.close();
+
+		dict.open();
+		assertEquals(threads * perThread, dict.size());
+		assertEquals("def 7", dict.get("3-7"));
+		dict.close();
+		dictFile.delete();
+	}
+}
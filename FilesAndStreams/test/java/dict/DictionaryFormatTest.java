@@ -0,0 +1,294 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DictionaryFormatTest {
+
+	TreeMap<String, String> sample() {
+		TreeMap<String, String> map = new TreeMap<String, String>();
+		for (int i = 0; i < 1000; ++i) {
+			map.put("word" + i, "definition number " + i + ":another definition");
+		}
+		map.put("", "");
+		return map;
+	}
+
+	/**
+	 * Write a dictionary file the way the dictionaries do, with a checksum trailer.
+	 */
+	static void save(File file, TreeMap<String, String> map, DictionaryFormat format) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.write(temp, map, format);
+		DictionaryFiles.commit(temp, file);
+		DictionaryFiles.previousGeneration(file).delete();
+	}
+
+	static void corrupt(File file) throws IOException {
+		// Flip a byte in the middle of the file
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() / 2);
+		int b = raf.read();
+		raf.seek(raf.length() / 2);
+		raf.write(b ^ 0x20);
+		raf.close();
+	}
+
+	@Test
+	public void convertRoundTrip() throws IOException {
+		File text = File.createTempFile("DictFormat", ".txt");
+		File binary = File.createTempFile("DictFormat", ".bin");
+		TreeMap<String, String> expected = sample();
+
+		DictionaryFiles.write(text, expected, DictionaryFormat.TEXT);
+		assertEquals(DictionaryFormat.TEXT, DictionaryFormat.detect(text));
+
+		DictionaryFormat.convert(text, binary, DictionaryFormat.BINARY_FRONT_CODED);
+		assertEquals(DictionaryFormat.BINARY_FRONT_CODED, DictionaryFormat.detect(binary));
+		assertTrue("Front-coded file should be smaller", binary.length() < text.length());
+
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(binary, actual);
+		assertEquals(expected, actual);
+
+		// Convert in place back to text
+		DictionaryFormat.convert(binary, binary, DictionaryFormat.TEXT);
+		assertEquals(DictionaryFormat.TEXT, DictionaryFormat.detect(binary));
+		actual.clear();
+		DictionaryFiles.read(binary, actual);
+		assertEquals(expected, actual);
+
+		text.delete();
+		binary.delete();
+	}
+
+	@Test
+	public void plainBinary() throws IOException {
+		File binary = File.createTempFile("DictFormat", ".bin");
+		TreeMap<String, String> expected = sample();
+		// Binary files are always UTF-8, whatever the platform charset is
+		expected.put("\u05e9\u05dc\u05d5\u05dd", "\u00e9t\u00e9");
+
+		save(binary, expected, DictionaryFormat.BINARY);
+		assertEquals(DictionaryFormat.BINARY, DictionaryFormat.detect(binary));
+
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(binary, actual);
+		assertEquals(expected, actual);
+		binary.delete();
+	}
+
+	@Test
+	public void compressedRoundTrip() throws IOException {
+		File text = File.createTempFile("DictFormat", ".txt");
+		File frontCoded = File.createTempFile("DictFormat", ".bin");
+		File compressed = File.createTempFile("DictFormat", ".bin");
+		TreeMap<String, String> expected = sample();
+		for (int i = 0; i < 1000; ++i) {
+			expected.put("long" + i, "the state or quality of being " + i + " times more verbose than a definition of a word");
+		}
+		expected.put("\u05e9\u05dc\u05d5\u05dd", "\u00e9t\u00e9");
+		expected.put("short", "x");
+
+		save(frontCoded, expected, DictionaryFormat.BINARY_FRONT_CODED);
+		save(text, expected, DictionaryFormat.BINARY_FRONT_CODED);
+		DictionaryFormat.convert(text, compressed, DictionaryFormat.BINARY_COMPRESSED);
+		assertEquals(DictionaryFormat.BINARY_COMPRESSED, DictionaryFormat.detect(compressed));
+		assertTrue("Compressed file should be smaller", compressed.length() < frontCoded.length() * 2 / 3);
+
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(compressed, actual);
+		assertEquals(expected, actual);
+
+		save(compressed, expected, DictionaryFormat.BINARY_COMPRESSED);
+		actual.clear();
+		DictionaryFiles.read(compressed, actual);
+		assertEquals(expected, actual);
+
+		text.delete();
+		frontCoded.delete();
+		compressed.delete();
+	}
+
+	@Test
+	public void corruptFileFallsBack() throws IOException {
+		for (DictionaryFormat format : DictionaryFormat.values()) {
+			File file = File.createTempFile("DictFormat", ".dict");
+			File previous = DictionaryFiles.previousGeneration(file);
+			TreeMap<String, String> first = sample();
+			TreeMap<String, String> second = sample();
+			second.put("word0", "changed");
+
+			InMemoryDictionary dict = new InMemoryDictionary(file, format);
+			dict.open();
+			dict.putAll(first);
+			dict.close();
+			dict.open();
+			dict.putAll(second);
+			dict.close();
+			corrupt(file);
+
+			// Checking while reading finds the damage once the whole file is read
+			final TreeMap<String, String> streamed = new TreeMap<String, String>();
+			DictionaryFiles.EntryHandler collect = new DictionaryFiles.EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) {
+					streamed.put(key, value);
+					return true;
+				}
+			};
+			assertEquals(format + " corruption should be found", false, DictionaryFiles.readChecked(file, collect));
+			streamed.clear();
+			assertEquals(true, DictionaryFiles.readChecked(previous, collect));
+			assertEquals(first, streamed);
+
+			// Reading falls back to the previous generation, and restores it over the corrupt file
+			TreeMap<String, String> actual = new TreeMap<String, String>();
+			DictionaryFiles.read(file, actual);
+			assertEquals(format + " should fall back to the previous generation", first, actual);
+			assertArrayEquals(format + " should be restored", Files.readAllBytes(previous.toPath()), Files.readAllBytes(file.toPath()));
+
+			// A lazy dictionary, which checks while it loads, drops what it loaded and falls back as well
+			corrupt(file);
+			LazyInMemoryDictionary lazy = new LazyInMemoryDictionary(file);
+			lazy.open();
+			assertEquals(format + " lazy fallback", first.size(), lazy.size());
+			assertEquals(first.get("word0"), lazy.get("word0"));
+			lazy.close();
+			assertEquals(true, DictionaryFiles.readChecked(file, collect));
+
+			// With no good generation left, reading fails rather than returning damaged entries
+			corrupt(file);
+			previous.delete();
+			try {
+				DictionaryFiles.read(file, actual);
+				fail("Corrupt " + format + " file was read");
+			} catch (IOException e) {
+				// expected
+			}
+			file.delete();
+		}
+	}
+
+	@Test
+	public void commitKeepsGoodGeneration() throws IOException {
+		File file = File.createTempFile("DictFormat", ".dict");
+		File temp = new File(file.getPath() + ".tmp");
+		TreeMap<String, String> first = sample();
+		save(file, first, DictionaryFormat.BINARY);
+		TreeMap<String, String> second = sample();
+		second.put("word0", "changed");
+		DictionaryFiles.write(temp, second, DictionaryFormat.BINARY);
+		DictionaryFiles.commit(temp, file);
+
+		// A corrupt current file is replaced, but does not become the previous generation
+		corrupt(file);
+		TreeMap<String, String> third = sample();
+		third.put("word0", "third");
+		DictionaryFiles.write(temp, third, DictionaryFormat.BINARY);
+		DictionaryFiles.commit(temp, file);
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(DictionaryFiles.previousGeneration(file), actual);
+		assertEquals(first, actual);
+		actual.clear();
+		DictionaryFiles.read(file, actual);
+		assertEquals(third, actual);
+		file.delete();
+		DictionaryFiles.previousGeneration(file).delete();
+	}
+
+	@Test
+	public void truncatedBinaryFile() throws IOException {
+		for (DictionaryFormat format : new DictionaryFormat[] { DictionaryFormat.BINARY, DictionaryFormat.BINARY_FRONT_CODED,
+				DictionaryFormat.BINARY_COMPRESSED }) {
+			File file = File.createTempFile("DictFormat", ".dict");
+			save(file, sample(), format);
+			// Cut off the end, trailer included
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(raf.length() - 100);
+			raf.close();
+			TreeMap<String, String> actual = new TreeMap<String, String>();
+			try {
+				DictionaryFiles.read(file, actual);
+				fail("Truncated " + format + " file was read");
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(format + " truncation should be found", false, DictionaryFiles.readChecked(file, new DictionaryFiles.EntryHandler() {
+				@Override
+				public boolean entry(String key, String value) {
+					return true;
+				}
+			}));
+			file.delete();
+		}
+	}
+
+	@Test
+	public void fileWithoutTrailer() throws IOException {
+		// Files written before the checksum trailer existed are still read
+		File text = File.createTempFile("DictFormat", ".txt");
+		TreeMap<String, String> expected = sample();
+		DictionaryFiles.write(text, expected, DictionaryFormat.TEXT);
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(text, actual);
+		assertEquals(expected, actual);
+		text.delete();
+	}
+
+	@Test
+	public void rawRead() throws IOException {
+		TreeMap<String, String> expected = sample();
+		// a line longer than the read buffer
+		StringBuilder longValue = new StringBuilder();
+		while (longValue.length() < 200000) {
+			longValue.append("a long definition ");
+		}
+		expected.put("long", longValue.toString());
+		for (DictionaryFormat format : DictionaryFormat.values()) {
+			File file = File.createTempFile("DictFormat", ".dict");
+			save(file, expected, format);
+			final TreeMap<String, String> actual = new TreeMap<String, String>();
+			DictionaryFiles.readRaw(file, new DictionaryFiles.RawEntryHandler() {
+				@Override
+				public boolean entry(byte[] bytes, int keyOffset, int keyLength, int valueOffset, int valueLength) {
+					actual.put(new String(bytes, keyOffset, keyLength, StandardCharsets.UTF_8),
+							new String(bytes, valueOffset, valueLength, StandardCharsets.UTF_8));
+					return true;
+				}
+			});
+			assertEquals(format.toString(), expected, actual);
+			file.delete();
+		}
+	}
+
+	@Test
+	public void textLineEndings() throws IOException {
+		// Windows line endings, and a last line without a newline
+		File text = File.createTempFile("DictFormat", ".txt");
+		FileOutputStream out = new FileOutputStream(text);
+		out.write("a:1\r\nb:2:3\r\nc:\nd:4".getBytes(StandardCharsets.US_ASCII));
+		out.close();
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		expected.put("a", "1");
+		expected.put("b", "2:3");
+		expected.put("c", "");
+		expected.put("d", "4");
+		TreeMap<String, String> actual = new TreeMap<String, String>();
+		DictionaryFiles.read(text, actual);
+		assertEquals(expected, actual);
+		text.delete();
+	}
+}
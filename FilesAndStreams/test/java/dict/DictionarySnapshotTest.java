@@ -0,0 +1,136 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DictionarySnapshotTest {
+
+	InMemoryDictionary dictionary(int size) throws IOException {
+		File file = File.createTempFile("DictSnapshot", ".txt");
+		file.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(file);
+		dict.open();
+		for (int i = 0; i < size; ++i) {
+			dict.put(String.format("word%05d", i), "def" + i);
+		}
+		return dict;
+	}
+
+	@Test
+	public void isolationTest() throws IOException {
+		InMemoryDictionary dict = dictionary(1000);
+		TreeMap<String, String> expected = new TreeMap<String, String>(dict);
+		DictionarySnapshot snapshot = dict.snapshot();
+
+		// Iterate part of the way, then change the dictionary under the iterator
+		Iterator<Map.Entry<String, String>> entries = snapshot.entrySet().iterator();
+		Iterator<Map.Entry<String, String>> expectedEntries = expected.entrySet().iterator();
+		for (int i = 0; i < 300; ++i) {
+			assertEquals(expectedEntries.next(), entries.next());
+		}
+		dict.put("word00500", "changed");
+		dict.remove("word00900");
+		dict.put("new", "entry");
+		while (expectedEntries.hasNext()) {
+			assertEquals(expectedEntries.next(), entries.next());
+		}
+		assertEquals(false, entries.hasNext());
+
+		assertEquals(expected, snapshot);
+		assertEquals("def500", snapshot.get("word00500"));
+		assertNull(snapshot.get("new"));
+		assertEquals(1000, snapshot.size());
+
+		DictionarySnapshot later = dict.snapshot();
+		dict.clear();
+		assertEquals("changed", later.get("word00500"));
+		assertEquals(1000, later.size());
+		assertEquals(expected, snapshot);
+
+		assertEquals(expected.subMap("word00100", "word00200"),
+				snapshot.range("word00100", "word00200").collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+		assertEquals(10, snapshot.prefixScan("word0010", 100).count());
+		dict.file.delete();
+	}
+
+	@Test
+	public void concurrentWriterTest() throws Exception {
+		final InMemoryDictionary dict = dictionary(20000);
+		TreeMap<String, String> expected = new TreeMap<String, String>(dict);
+		DictionarySnapshot snapshot = dict.snapshot();
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 20000; ++i) {
+					dict.put(String.format("word%05d", (i * 7919) % 20000), "new" + i);
+					if (i % 3 == 0) {
+						dict.remove(String.format("word%05d", i));
+					}
+				}
+			}
+		});
+		writer.start();
+		TreeMap<String, String> exported = new TreeMap<String, String>();
+		for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+			exported.put(entry.getKey(), entry.getValue());
+		}
+		writer.join();
+		assertEquals(expected, exported);
+		dict.file.delete();
+	}
+
+	@Test
+	public void versionsTest() throws IOException {
+		InMemoryDictionary dict = dictionary(500);
+		Random rnd = new Random(7);
+		List<TreeMap<String, String>> states = new ArrayList<TreeMap<String, String>>();
+		List<DictionarySnapshot> snapshots = new ArrayList<DictionarySnapshot>();
+		for (int round = 0; round < 20; ++round) {
+			states.add(new TreeMap<String, String>(dict));
+			snapshots.add(dict.snapshot());
+			// Each snapshot only saves the old values of the keys changed after it was taken
+			for (int i = 0; i < 50; ++i) {
+				String key = String.format("word%05d", rnd.nextInt(700));
+				if (rnd.nextInt(3) == 0) {
+					dict.remove(key);
+				} else {
+					dict.put(key, "round" + round);
+				}
+			}
+		}
+		for (int i = 0; i < states.size(); ++i) {
+			assertEquals(new ArrayList<Map.Entry<String, String>>(states.get(i).entrySet()),
+					new ArrayList<Map.Entry<String, String>>(snapshots.get(i).entrySet()));
+			for (int k = 0; k < 700; ++k) {
+				String key = String.format("word%05d", k);
+				assertEquals(states.get(i).get(key), snapshots.get(i).get(key));
+			}
+			assertEquals(states.get(i).size(), snapshots.get(i).size());
+		}
+		dict.file.delete();
+	}
+
+	@Test
+	public void closeWritesSnapshotTest() throws IOException {
+		InMemoryDictionary dict = dictionary(100);
+		dict.close();
+		InMemoryDictionary reopened = new InMemoryDictionary(dict.file);
+		reopened.open();
+		assertEquals(dict, reopened);
+		dict.file.delete();
+		DictionaryFiles.previousGeneration(dict.file).delete();
+	}
+}
@@ -0,0 +1,12 @@
+package dict;
+
+
+import java.io.File;
+import java.io.IOException;
+
+public class FrontCodedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new InMemoryDictionary(dictFile, DictionaryFormat.BINARY_FRONT_CODED);
+	}
+}
@@ -0,0 +1,97 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FrozenDictionaryTest {
+
+	TreeMap<String, String> sample(int size) {
+		Random rnd = new Random(19);
+		TreeMap<String, String> map = new TreeMap<String, String>();
+		while (map.size() < size) {
+			map.put(Integer.toString(rnd.nextInt(100 * size), 36), "def" + map.size());
+		}
+		return map;
+	}
+
+	@Test
+	public void lookupTest() throws IOException {
+		// sizes around powers of two exercise every shape of the search tree
+		for (int size : new int[] { 0, 1, 2, 3, 7, 8, 9, 100, 1023, 1024, 1025 }) {
+			File file = File.createTempFile("DictFrozen", ".txt");
+			TreeMap<String, String> expected = sample(size);
+			InMemoryDictionary dict = new InMemoryDictionary(file);
+			dict.open();
+			dict.putAll(expected);
+			dict.close();
+
+			FrozenDictionary frozen = new FrozenDictionary(file);
+			frozen.open();
+			assertEquals(expected.size(), frozen.size());
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), frozen.get(entry.getKey()));
+				// keys just before and after every key are missing
+				assertNull(frozen.get(entry.getKey() + "\u0000"));
+				assertFalse(frozen.containsKey(entry.getKey().substring(0, entry.getKey().length() - 1) + "~"));
+			}
+			assertNull(frozen.get(""));
+
+			TreeMap<String, String> all = frozen.range("", null)
+					.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+			assertEquals(expected, all);
+			if (size > 2) {
+				String from = expected.firstKey() + "\u0000", to = expected.lastKey();
+				assertEquals(expected.subMap(from, to).size(), frozen.range(from, to).count());
+				assertEquals(expected.subMap(from, to).firstKey(), frozen.range(from, to).findFirst().get().getKey());
+			}
+			frozen.close();
+			file.delete();
+			DictionaryFiles.previousGeneration(file).delete();
+		}
+	}
+
+	@Test
+	public void freezeAndThawTest() throws IOException {
+		File file = File.createTempFile("DictFrozen", ".txt");
+		file.delete();
+		TreeMap<String, String> expected = sample(500);
+		InMemoryDictionary dict = new InMemoryDictionary(file);
+		dict.open();
+		dict.putAll(expected);
+
+		FrozenDictionary frozen = dict.freeze();
+		assertEquals(expected.size(), frozen.size());
+		try {
+			frozen.put("a", "b");
+			fail("Frozen dictionary was changed");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// Unsaved changes are written when the frozen dictionary is closed
+		frozen.close();
+		TreeMap<String, String> saved = new TreeMap<String, String>();
+		DictionaryFiles.read(file, saved);
+		assertEquals(expected, saved);
+
+		InMemoryDictionary thawed = frozen.thaw();
+		assertEquals(expected, thawed);
+		thawed.put("new", "entry");
+		thawed.close();
+		frozen.open();
+		assertEquals("entry", frozen.get("new"));
+		file.delete();
+		DictionaryFiles.previousGeneration(file).delete();
+	}
+}
@@ -1,12 +1,89 @@
 package dict;
 
 
+import org.junit.Test;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class InMemoryDictionaryTest extends PersistentDictionaryTest {
 	@Override
     PersistentDictionary getDictionary(File file) throws IOException {
 		return new InMemoryDictionary(dictFile);
 	}
+
+	@Test
+	public void mapMethodsTest() throws IOException {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 10; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+
+		// Every TreeMap mutator is a change that close() writes and snapshots do not see
+		dict.open();
+		DictionarySnapshot snapshot = dict.snapshot();
+		TreeMap<String, String> before = new TreeMap<String, String>(dict);
+		dict.putIfAbsent("new1", "a");
+		dict.remove("word1", "def1");
+		dict.replace("word2", "b");
+		dict.replace("word3", "def3", "c");
+		dict.computeIfAbsent("new2", key -> "d");
+		dict.computeIfPresent("word4", (key, value) -> null);
+		dict.compute("word5", (key, value) -> value + "e");
+		dict.merge("word6", "f", (old, value) -> old + value);
+		dict.pollFirstEntry();
+		dict.pollLastEntry();
+		TreeMap<String, String> expected = new TreeMap<String, String>(dict);
+		assertEquals(before, snapshot);
+		dict.close();
+		dict.open();
+		assertEquals(expected, dict);
+
+		dict.replaceAll((key, value) -> value.toUpperCase());
+		expected.replaceAll((key, value) -> value.toUpperCase());
+		dict.close();
+		dict.open();
+		assertEquals(expected, dict);
+
+		// The views can not change the dictionary behind its back
+		Iterator<Map.Entry<String, String>> entries = dict.entrySet().iterator();
+		Map.Entry<String, String> entry = entries.next();
+		for (Runnable change : new Runnable[] {
+				() -> entry.setValue("x"),
+				() -> entries.remove(),
+				() -> dict.keySet().remove("word2"),
+				() -> dict.values().clear(),
+				() -> dict.headMap("word5").clear(),
+				() -> dict.tailMap("word5").put("word9", "x"),
+				() -> dict.subMap("word0", "word9").entrySet().iterator().next().setValue("x"),
+				() -> dict.descendingMap().pollFirstEntry() }) {
+			try {
+				change.run();
+				fail("A view changed the dictionary");
+			} catch (UnsupportedOperationException e) {
+				// expected
+			}
+		}
+		assertEquals(expected, dict);
+		dict.close();
+
+		// An empty batch is not a change
+		dict.open();
+		dict.putAll(Collections.<String, String>emptyMap());
+		dictFile.setLastModified(1000);
+		dict.close();
+		assertEquals(1000, dictFile.lastModified());
+		dictFile.delete();
+		DictionaryFiles.previousGeneration(dictFile).delete();
+	}
 }
@@ -0,0 +1,139 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogStructuredDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		// A tiny threshold makes the tests go through log rotation and background compaction.
+		return new LogStructuredDictionary(dictFile, 4096);
+	}
+
+	@Test
+	public void groupCommitTest() throws Exception {
+		dictFile.delete();
+		final LogStructuredDictionary dict = new LogStructuredDictionary(dictFile, 1 << 20, 20, 50);
+		dict.open();
+		final List<CompletableFuture<Void>> flushes = new ArrayList<CompletableFuture<Void>>();
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			final int thread = t;
+			writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 500; ++i) {
+						dict.put("t" + thread + "w" + i, "def" + i);
+						if (i % 100 == 99) {
+							CompletableFuture<Void> flush = dict.flush();
+							synchronized (flushes) {
+								flushes.add(flush);
+							}
+						}
+					}
+				}
+			}));
+		}
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		for (CompletableFuture<Void> flush : flushes) {
+			flush.get(10, TimeUnit.SECONDS);
+		}
+
+		// A second dictionary replays the synced log while the first is still open
+		LogStructuredDictionary reader = new LogStructuredDictionary(dictFile);
+		reader.open();
+		assertEquals(2000, reader.size());
+		reader.close();
+
+		dict.close();
+		dictFile.delete();
+	}
+
+	@Test
+	public void interruptedCompactionTest() throws Exception {
+		dictFile.delete();
+		File logFile = new File(dictFile.getPath() + ".log");
+		File oldLogFile = new File(dictFile.getPath() + ".log.old");
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile, 1 << 20);
+		dict.open();
+		for (int i = 0; i < 100; ++i) {
+			dict.put("word" + i, "old" + i);
+		}
+		dict.close();
+		// A crash right after the log was rotated, with more records written to a new log afterwards
+		assertTrue(logFile.renameTo(oldLogFile));
+		File other = new File(dictFile.getPath() + ".other");
+		LogStructuredDictionary newer = new LogStructuredDictionary(other, 1 << 20);
+		newer.open();
+		for (int i = 50; i < 150; ++i) {
+			newer.put("word" + i, "new" + i);
+		}
+		newer.close();
+		assertTrue(new File(other.getPath() + ".log").renameTo(logFile));
+		other.delete();
+
+		// Open finishes the compaction, so both logs are gone and compaction works again
+		dict = new LogStructuredDictionary(dictFile, 4096);
+		dict.open();
+		assertFalse(oldLogFile.exists());
+		assertFalse(logFile.exists());
+		assertEquals(150, dict.size());
+		assertEquals("old10", dict.get("word10"));
+		assertEquals("new60", dict.get("word60"));
+		for (int i = 0; i < 2000; ++i) {
+			dict.put("more" + i, "def" + i);
+		}
+		dict.close();
+		TreeMap<String, String> snapshot = new TreeMap<String, String>();
+		DictionaryFiles.read(dictFile, snapshot);
+		assertTrue("The log should have been compacted into the snapshot", snapshot.containsKey("more0"));
+
+		dict.open();
+		assertEquals(2150, dict.size());
+		dict.close();
+		dictFile.delete();
+		logFile.delete();
+	}
+
+	@Test
+	public void nullValueTest() throws Exception {
+		dictFile.delete();
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile, 1 << 20);
+		dict.open();
+		dict.put("before", "def");
+		try {
+			dict.put("null", null);
+			fail("A null value can not be logged");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		dict.put("after", "def");
+		dict.close();
+
+		dict.open();
+		assertEquals(2, dict.size());
+		assertEquals("def", dict.get("after"));
+		assertFalse(dict.containsKey("null"));
+		dict.close();
+		dictFile.delete();
+		new File(dictFile.getPath() + ".log").delete();
+	}
+}
@@ -0,0 +1,49 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new MappedDictionary(dictFile);
+	}
+
+	@Test
+	public void unchangedCloseTest() throws Exception {
+		dictFile.delete();
+		File previous = DictionaryFiles.previousGeneration(dictFile);
+		MappedDictionary dict = new MappedDictionary(dictFile);
+		dict.open();
+		dict.put("word", "def");
+		dict.close();
+		byte[] written = Files.readAllBytes(dictFile.toPath());
+
+		// Lookups and removals of missing keys do not rewrite the file
+		dict.open();
+		assertEquals("def", dict.get("word"));
+		dict.remove("missing");
+		dict.close();
+		assertFalse(previous.exists());
+		assertArrayEquals(written, Files.readAllBytes(dictFile.toPath()));
+
+		dict.open();
+		dict.put("other", "def");
+		dict.close();
+		assertTrue(previous.exists());
+		dict.open();
+		assertEquals(2, dict.size());
+		dict.close();
+		previous.delete();
+		dictFile.delete();
+	}
+}
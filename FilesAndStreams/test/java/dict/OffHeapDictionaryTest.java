@@ -0,0 +1,73 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new OffHeapDictionary(dictFile);
+	}
+
+	/**
+	 * The file must be sorted the way a TreeMap sorts, even though keys are compared as UTF-8 bytes.
+	 */
+	@Test
+	public void sortedLikeTreeMapTest() throws Exception {
+		String[] words = { "b", "a", "\ue000", "\ud83d\ude00", "\u00e9", "ab", "" };
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = new OffHeapDictionary(dictFile, DictionaryFormat.BINARY);
+		dict.open();
+		for (String word : words) {
+			expected.put(word, word);
+			dict.put(word, word);
+		}
+		dict.close();
+
+		final List<String> order = new ArrayList<String>();
+		DictionaryFiles.read(dictFile, new DictionaryFiles.EntryHandler() {
+			@Override
+			public boolean entry(String key, String value) {
+				order.add(key);
+				return true;
+			}
+		});
+		assertEquals(new ArrayList<String>(expected.keySet()), order);
+		dictFile.delete();
+	}
+
+	/**
+	 * Overwrite the same keys over and over, so the arena has to be compacted.
+	 */
+	@Test
+	public void compactionTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		for (int round = 0; round < 50; ++round) {
+			for (int i = 0; i < 1000; ++i) {
+				dict.put("word" + i, "definition " + round + " of word " + i);
+			}
+			for (int i = 0; i < 1000; i += 3) {
+				dict.remove("word" + i);
+			}
+		}
+		assertEquals(666, dict.size());
+		assertEquals("definition 49 of word 1", dict.get("word1"));
+		dict.close();
+		dict.open();
+		assertEquals(666, dict.size());
+		assertEquals(null, dict.get("word3"));
+		dict.close();
+		dictFile.delete();
+	}
+}
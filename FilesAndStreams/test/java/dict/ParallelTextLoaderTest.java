@@ -0,0 +1,114 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ParallelTextLoaderTest {
+
+	void compareWithSequential(File file) throws IOException {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		DictionaryFiles.read(file, expected);
+		TreeMap<String, String> actual = new TreeMap<String, String>(ParallelTextLoader.load(file, 0));
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void sortedFileTest() throws IOException {
+		File file = File.createTempFile("DictLoad", ".txt");
+		TreeMap<String, String> map = new TreeMap<String, String>();
+		for (int i = 0; i < 100000; ++i) {
+			map.put("word" + i, "definition number " + i + " with: a colon");
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		DictionaryFiles.write(temp, map, DictionaryFormat.TEXT);
+		DictionaryFiles.commit(temp, file); // with the checksum trailer
+		assertEquals(map, new TreeMap<String, String>(ParallelTextLoader.load(file, 0)));
+
+		InMemoryDictionary dict = new InMemoryDictionary(file);
+		dict.open();
+		assertEquals(map, dict);
+		file.delete();
+		DictionaryFiles.previousGeneration(file).delete();
+	}
+
+	@Test
+	public void unsortedFileTest() throws IOException {
+		// Random order with repeated keys: the last definition of a word wins, as when reading line by line
+		File file = File.createTempFile("DictLoad", ".txt");
+		Random rnd = new Random(19);
+		Writer out = new FileWriter(file);
+		for (int i = 0; i < 200000; ++i) {
+			out.write("w" + rnd.nextInt(50000) + ":def " + i + "\r\n");
+		}
+		out.write("last:no newline");
+		out.close();
+		compareWithSequential(file);
+		file.delete();
+	}
+
+	@Test
+	public void notApplicableTest() throws IOException {
+		File file = File.createTempFile("DictLoad", ".bin");
+		TreeMap<String, String> map = new TreeMap<String, String>();
+		map.put("a", "b");
+		DictionaryFiles.write(file, map, DictionaryFormat.BINARY);
+		assertNull(ParallelTextLoader.load(file, 0));
+		assertNull(ParallelTextLoader.load(file));
+		file.delete();
+		assertNull(ParallelTextLoader.load(file, 0));
+	}
+
+	@Test
+	public void sortedEntriesViewsTest() {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		for (int i = 0; i < 1000; i += 2) {
+			expected.put(String.format("k%04d", i), "v" + i);
+		}
+		SortedEntries entries = new SortedEntries(expected.keySet().toArray(new String[0]),
+				expected.values().toArray(new String[0]), expected.size());
+		assertEquals(expected, entries);
+		assertEquals("v10", entries.get("k0010"));
+		assertNull(entries.get("k0011"));
+
+		// Views bounded by present and missing keys behave like those of a TreeMap
+		String[][] bounds = { { "k0100", "k0200" }, { "k0101", "k0201" }, { "a", "z" }, { "k0300", "k0301" } };
+		for (String[] bound : bounds) {
+			SortedMap<String, String> sub = entries.subMap(bound[0], bound[1]);
+			assertEquals(expected.subMap(bound[0], bound[1]), sub);
+			assertEquals(expected.headMap(bound[1]), entries.headMap(bound[1]));
+			assertEquals(expected.tailMap(bound[0]), entries.tailMap(bound[0]));
+			assertEquals(expected.subMap(bound[0], bound[1]).headMap(bound[1]), sub.headMap(bound[1]));
+			assertEquals(expected.subMap(bound[0], bound[1]).tailMap(bound[0]), sub.tailMap(bound[0]));
+		}
+		SortedMap<String, String> sub = entries.subMap("k0100", "k0200");
+		assertEquals("k0100", sub.firstKey());
+		assertEquals("k0198", sub.lastKey());
+		assertNull(sub.get("k0300"));
+		assertEquals(new TreeMap<String, String>(expected.subMap("k0100", "k0200")), new TreeMap<String, String>(sub));
+		SortedMap<String, String> empty = entries.subMap("k0300", "k0300");
+		assertEquals(0, empty.size());
+		assertEquals(0, empty.headMap("k0300").size());
+
+		// Keys outside a view's bounds are rejected, as by a TreeMap
+		for (Runnable outside : new Runnable[] { () -> sub.headMap("k0300"), () -> sub.tailMap("k0000"),
+				() -> sub.subMap("k0150", "k0250"), () -> entries.subMap("k0200", "k0100"), () -> empty.tailMap("k0300") }) {
+			try {
+				outside.run();
+				fail("A view outside the bounds was created");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -7,9 +7,15 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -482,4 +488,187 @@ public abstract class PersistentDictionaryTest {
 		testEquality("Multiple add/remove, open/close cycles", expected, dict);
 	}
 
+	/**
+	 * Compare a stream of entries to the entries of a sorted map, in order.
+	 */
+	void testOrderedEquality(String msg, Map<String, String> expected,
+			List<Map.Entry<String, String>> actual) {
+		assertEquals(msg + ": different number of entries", expected.size(), actual.size());
+		int i = 0;
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertEquals(msg + ": wrong key at " + i, entry.getKey(), actual.get(i).getKey());
+			assertEquals(msg + ": wrong value at " + i, entry.getValue(), actual.get(i).getValue());
+			++i;
+		}
+	}
+
+	@Test
+	public void rangeAndPrefixTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		String[] testWords = randomStrings(MAX_SIZE, 6);
+		String[] testDefs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, testWords, testDefs);
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		// Reopen and change some entries, so persisted and in-memory entries are mixed
+		dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < testWords.length; i += 4) {
+			expected.remove(testWords[i]);
+			dict.remove(testWords[i]);
+		}
+		String[] addWords = randomStrings(MAX_SIZE / 4, 6);
+		String[] addDefs = randomStrings(MAX_SIZE / 4, MAX_LEN);
+		fillMap(expected, addWords, addDefs);
+		fillMap(dict, addWords, addDefs);
+
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String from = randomStrings(1, 3)[0];
+			String to = rnd.nextInt(4) == 0 ? null : randomStrings(1, 3)[0];
+			Map<String, String> range = to == null ? expected.tailMap(from, true)
+					: from.compareTo(to) < 0 ? expected.subMap(from, true, to, false) : new TreeMap<String, String>();
+			testOrderedEquality("Range [" + from + ", " + to + ")", range,
+					dict.range(from, to).collect(Collectors.toList()));
+
+			String prefix = randomStrings(1, 2)[0];
+			int limit = rnd.nextInt(5) + 1;
+			TreeMap<String, String> matches = new TreeMap<String, String>();
+			for (Map.Entry<String, String> entry : expected.tailMap(prefix, true).entrySet()) {
+				if (!entry.getKey().startsWith(prefix) || matches.size() == limit)
+					break;
+				matches.put(entry.getKey(), entry.getValue());
+			}
+			testOrderedEquality("Prefix " + prefix, matches,
+					dict.prefixScan(prefix, limit).collect(Collectors.toList()));
+		}
+
+		testOrderedEquality("Full range", expected, dict.range("", null).collect(Collectors.toList()));
+		dict.close();
+		dictFile.delete();
+	}
+
+	@Test
+	public void flushTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		Map<String, String> expected = new TreeMap<String, String>();
+		for (int i = 0; i < 100; ++i) {
+			expected.put("word" + i, "def" + i);
+		}
+		dict.putAll(expected);
+		try {
+			dict.flush().get();
+		} catch (ExecutionException e) {
+			// Dictionaries that can only be persisted by close() say so
+			assertEquals(UnsupportedOperationException.class, e.getCause().getClass());
+			dict.close();
+			dictFile.delete();
+			return;
+		}
+
+		// Changes made after the flush started are not lost either
+		dict.put("late", "entry");
+		expected.put("late", "entry");
+
+		// The flushed contents are on disk while the first dictionary is still open
+		PersistentDictionary reader = getDictionary(dictFile);
+		reader.open();
+		for (int i = 0; i < 100; ++i) {
+			assertEquals("def" + i, reader.get("word" + i));
+		}
+
+		dict.close();
+		reader.open();
+		assertEquals(expected.size(), reader.size());
+		assertEquals("entry", reader.get("late"));
+		reader.close();
+		dictFile.delete();
+	}
+
+	@Test
+	public void writeDuringFlushTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		Map<String, String> expected = new TreeMap<String, String>();
+		for (int i = 0; i < 50000; ++i) {
+			expected.put("word" + i, "def" + i);
+		}
+		dict.putAll(expected);
+		for (int round = 0; round < 20; ++round) {
+			CompletableFuture<Void> flush = dict.flush();
+			// Keep changing the dictionary (other keys than the flushed ones) while the flush is written,
+			// starting at different points of the write
+			Thread.sleep(round % 4);
+			int writes = 0;
+			while (!flush.isDone() || writes < 1000) {
+				String key = "extra" + rnd.nextInt(5000);
+				if (rnd.nextBoolean()) {
+					dict.put(key, "x" + writes);
+				} else {
+					dict.remove(key);
+				}
+				writes++;
+			}
+			try {
+				flush.get();
+			} catch (ExecutionException e) {
+				assertEquals(UnsupportedOperationException.class, e.getCause().getClass());
+				dict.close();
+				dictFile.delete();
+				return;
+			}
+		}
+
+		PersistentDictionary reader = getDictionary(dictFile);
+		reader.open();
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), reader.get(entry.getKey()));
+		}
+		reader.close();
+		dict.close();
+		dictFile.delete();
+	}
+
+	@Test
+	public void batchTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		int numWords = rnd.nextInt(MAX_SIZE);
+		String[] testWords = randomStrings(numWords, MAX_LEN);
+		String[] testDefs = randomStrings(numWords, MAX_LEN);
+		fillMap(expected, testWords, testDefs);
+		dict.putAll(expected);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		TreeMap<String, String> batch = new TreeMap<String, String>();
+		fillMap(batch, addWords, addDefs);
+		fillMap(batch, randomStrings(numWords, MAX_LEN), randomStrings(numWords, MAX_LEN));
+		expected.putAll(batch);
+		dict.putAll(batch);
+		testEquality("Batched put", expected, dict);
+
+		List<String> keys = new ArrayList<String>(Arrays.asList(testWords));
+		keys.addAll(Arrays.asList(randomStrings(numWords, MAX_LEN)));
+		Map<String, String> values = dict.getAll(keys);
+		for (String key : keys) {
+			assertEquals("Batched get of " + key, expected.get(key), values.get(key));
+		}
+		assertEquals("Batched get returned missing keys", values.size(),
+				expected.keySet().stream().filter(keys::contains).count());
+		dict.close();
+		dictFile.delete();
+	}
+
 }
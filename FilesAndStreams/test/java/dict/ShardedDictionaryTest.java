@@ -0,0 +1,172 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new ShardedDictionary(dictFile, 4);
+	}
+
+	@Test
+	public void onlyDirtyShardsTest() throws Exception {
+		dictFile.delete();
+		ShardedDictionary dict = new ShardedDictionary(dictFile, 4);
+		dict.open();
+		for (int i = 0; i < 100; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+
+		for (int i = 0; i < 4; ++i) {
+			dict.shardFile(i).setLastModified(1000);
+		}
+		dict.open();
+		dict.put("word7", "changed");
+		dict.close();
+
+		int rewritten = 0;
+		for (int i = 0; i < 4; ++i) {
+			if (dict.shardFile(i).lastModified() != 1000) {
+				rewritten++;
+			}
+		}
+		assertEquals("Only the changed shard should be rewritten", 1, rewritten);
+		dictFile.delete();
+	}
+
+	@Test
+	public void failedShardTest() throws Exception {
+		dictFile.delete();
+		ShardedDictionary dict = new ShardedDictionary(dictFile, 4);
+		dict.open();
+		for (int i = 0; i < 100; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		// The shard's temporary file can not be created, so the shard can not be written
+		File blocker = new File(dict.shardFile(2).getPath() + ".tmp");
+		assertTrue(blocker.mkdir());
+		try {
+			dict.close();
+			fail("A shard that was not written must fail the close");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			blocker.delete();
+		}
+		assertFalse("The manifest must not be written over a missing shard", dictFile.exists());
+
+		dict.close();
+		dict = new ShardedDictionary(dictFile, 4);
+		dict.open();
+		assertEquals(100, dict.size());
+		dictFile.delete();
+	}
+
+	@Test
+	public void interruptedReshardTest() throws Exception {
+		for (int[] layouts : new int[][] { { 2, 4 }, { 4, 2 } }) {
+			dictFile.delete();
+			TreeMap<String, String> expected = new TreeMap<String, String>();
+			ShardedDictionary dict = new ShardedDictionary(dictFile, layouts[0]);
+			dict.open();
+			for (int i = 0; i < 200; ++i) {
+				dict.put("word" + i, "def" + i);
+				expected.put("word" + i, "def" + i);
+			}
+			dict.close();
+
+			// Reshard with some changes, but fail (as a crash would) before the manifest is written
+			dict = new ShardedDictionary(dictFile, layouts[1]);
+			dict.open();
+			for (int i = 0; i < 50; ++i) {
+				dict.remove("word" + i);
+			}
+			File blocker = new File(dictFile.getPath() + ".tmp");
+			assertTrue(blocker.mkdir());
+			try {
+				dict.close();
+				fail("The manifest can not be written");
+			} catch (IOException e) {
+				// expected
+			} finally {
+				blocker.delete();
+			}
+
+			// The old layout is still complete, and the new one is not used
+			for (int numShards : layouts) {
+				dict = new ShardedDictionary(dictFile, numShards);
+				dict.open();
+				assertEquals(layouts[0] + " to " + layouts[1] + " shards", expected.size(), dict.size());
+				for (Map.Entry<String, String> entry : expected.entrySet()) {
+					assertEquals(entry.getValue(), dict.get(entry.getKey()));
+				}
+				dict.close();
+			}
+			dictFile.delete();
+		}
+	}
+
+	@Test
+	public void unreadableShardTest() throws Exception {
+		dictFile.delete();
+		ShardedDictionary dict = new ShardedDictionary(dictFile, 4);
+		dict.open();
+		for (int i = 0; i < 100; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+
+		// Damage a shard that has no previous generation to fall back on
+		DictionaryFiles.previousGeneration(dict.shardFile(1)).delete();
+		RandomAccessFile shard = new RandomAccessFile(dict.shardFile(1), "rw");
+		shard.write('X');
+		shard.close();
+		long length = dict.shardFile(1).length();
+		try {
+			dict.open();
+			fail("A shard that can not be read must fail the open");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("The damaged shard must be left alone", length, dict.shardFile(1).length());
+		dictFile.delete();
+	}
+
+	@Test
+	public void reshardTest() throws Exception {
+		dictFile.delete();
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		ShardedDictionary dict = new ShardedDictionary(dictFile, 5);
+		dict.open();
+		for (int i = 0; i < 200; ++i) {
+			dict.put("word" + i, "def" + i);
+			expected.put("word" + i, "def" + i);
+		}
+		dict.close();
+
+		for (int numShards : new int[] { 2, 7, 1 }) {
+			dict = new ShardedDictionary(dictFile, numShards);
+			dict.open();
+			assertEquals(expected.size(), dict.size());
+			for (String key : expected.keySet()) {
+				assertEquals(expected.get(key), dict.get(key));
+			}
+			dict.close();
+		}
+		assertEquals("Shard files of the old layouts should be gone", false, dict.shardFile(1).exists());
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,109 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrieDictionaryTest extends PersistentDictionaryTest {
+	@Override
+    PersistentDictionary getDictionary(File file) throws IOException {
+		return new TrieDictionary(dictFile);
+	}
+
+	TreeMap<String, String> collect(PersistentDictionary dict, String prefix) {
+		return dict.prefixScan(prefix, Integer.MAX_VALUE)
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+	}
+
+	/**
+	 * Keys that are prefixes of each other, and labels that are split by later keys.
+	 */
+	@Test
+	public void sharedPrefixTest() throws Exception {
+		String[] words = { "", "a", "ab", "abc", "abcd", "abd", "b", "ba", "bab", "car", "card", "care", "cared",
+				"careful", "carefully", "cars", "cart", "\u00e9t\u00e9", "\uffff", "\uffff\uffff" };
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		for (String word : words) {
+			expected.put(word, "def of " + word);
+		}
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		//put them out of order, so the overlay and the file are both exercised after the reopen
+		for (int i = words.length - 1; i >= 0; i -= 2) {
+			dict.put(words[i], expected.get(words[i]));
+		}
+		dict.close();
+		dict.open();
+		for (int i = words.length - 2; i >= 0; i -= 2) {
+			dict.put(words[i], expected.get(words[i]));
+		}
+		dict.close();
+
+		dict.open();
+		assertEquals(expected.size(), dict.size());
+		for (String word : words) {
+			assertEquals(expected.get(word), dict.get(word));
+		}
+		assertNull(dict.get("ca"));
+		assertNull(dict.get("abce"));
+		assertNull(dict.get("carefull"));
+		for (String prefix : new String[] { "", "a", "ab", "abc", "c", "car", "care", "carf", "ca", "\uffff", "z" }) {
+			assertEquals(prefix, new TreeMap<String, String>(expected.subMap(prefix, true,
+					prefix + "\uffff\uffff\uffff", true)), collect(dict, prefix));
+		}
+		assertEquals(expected.subMap("abc", "card"), dict.range("abc", "card")
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new)));
+
+		dict.remove("car");
+		dict.put("carefu", "new");
+		expected.remove("car");
+		expected.put("carefu", "new");
+		assertEquals(expected.subMap("car", "cas"), collect(dict, "car"));
+		dict.close();
+		dict.open();
+		assertEquals(expected.subMap("car", "cas"), collect(dict, "car"));
+		assertEquals(expected.size(), dict.size());
+		dict.close();
+	}
+
+	@Test
+	public void unchangedCloseTest() throws Exception {
+		dictFile.delete();
+		File previous = DictionaryFiles.previousGeneration(dictFile);
+		TrieDictionary dict = new TrieDictionary(dictFile);
+		dict.open();
+		dict.put("word", "def");
+		dict.close();
+		byte[] written = Files.readAllBytes(dictFile.toPath());
+
+		// Lookups and removals of missing keys do not rewrite the file
+		dict.open();
+		assertEquals("def", dict.get("word"));
+		dict.remove("missing");
+		dict.close();
+		assertFalse(previous.exists());
+		assertArrayEquals(written, Files.readAllBytes(dictFile.toPath()));
+
+		dict.open();
+		dict.put("other", "def");
+		dict.close();
+		assertTrue(previous.exists());
+		dict.open();
+		assertEquals(2, dict.size());
+		dict.close();
+		previous.delete();
+		dictFile.delete();
+	}
+}
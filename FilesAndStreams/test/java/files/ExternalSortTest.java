@@ -0,0 +1,107 @@
+package files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ExternalSortTest {
+	Random rnd;
+
+	@Before
+	public void setup() {
+		rnd = new Random(11);
+	}
+
+	/**
+	 * Sort a random file with the given parameters and compare the result to a stable in-memory sort.
+	 * Keys are drawn from a small range, so that there are many equal keys and stability matters.
+	 */
+	void check(int recordSize, int keyLength, int count, long memoryBudget, int parallelism) throws IOException {
+		byte[][] records = new byte[count][recordSize];
+		for (byte[] record : records) {
+			rnd.nextBytes(record);
+			record[0] = (byte) (rnd.nextInt(4) * 85);
+		}
+		byte[] trailing = { 1, 2 };
+
+		File temp = File.createTempFile("externalSort", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		for (byte[] record : records) {
+			file.write(record);
+		}
+		if (recordSize > trailing.length) {
+			file.write(trailing);
+		}
+		new ExternalSort(recordSize, keyLength, memoryBudget, parallelism).sort(file);
+
+		byte[][] sorted = records.clone();
+		Arrays.sort(sorted, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] a, byte[] b) {
+				return Arrays.compareUnsigned(a, 0, keyLength, b, 0, keyLength);
+			}
+		});
+		byte[] expected = new byte[(int) file.length()];
+		for (int i = 0; i < count; ++i) {
+			System.arraycopy(sorted[i], 0, expected, i * recordSize, recordSize);
+		}
+		if (recordSize > trailing.length) {
+			System.arraycopy(trailing, 0, expected, count * recordSize, trailing.length);
+		}
+		byte[] actual = new byte[expected.length];
+		file.seek(0);
+		file.readFully(actual);
+		assertArrayEquals("record size " + recordSize + ", key length " + keyLength + ", budget " + memoryBudget
+				+ ", parallelism " + parallelism, expected, actual);
+		file.close();
+		temp.delete();
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		for (int width : new int[] { 3, 4, 8, 16 }) {
+			check(width, width, 5000, ExternalSort.DEFAULT_MEMORY_BUDGET, 1);
+		}
+	}
+
+	@Test
+	public void testSpilledRuns() throws IOException {
+		for (int width : new int[] { 3, 4, 8, 16 }) {
+			check(width, width, 20000, 1 << 16, 1);
+		}
+	}
+
+	@Test
+	public void testKeyPrefix() throws IOException {
+		// records that only differ after the key keep their order
+		check(16, 4, 20000, 1 << 16, 1);
+		check(16, 6, 20000, 1 << 16, 1);
+	}
+
+	@Test
+	public void testMultiPassMerge() throws IOException {
+		// a tiny budget makes hundreds of runs, merged two at a time
+		check(8, 8, 10000, 1 << 12, 1);
+	}
+
+	@Test
+	public void testParallelRuns() throws IOException {
+		check(4, 4, 100000, 1 << 18, 4);
+		check(16, 5, 50000, 1 << 18, 3);
+	}
+
+	@Test
+	public void testTinyFiles() throws IOException {
+		check(3, 3, 0, 1 << 16, 1);
+		check(3, 3, 1, 1 << 16, 1);
+		check(3, 3, 2, 1 << 16, 2);
+	}
+}
@@ -0,0 +1,121 @@
+package files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class MappedRadixSortTest {
+	Random rnd;
+
+	@Before
+	public void setup() {
+		rnd = new Random(13);
+	}
+
+	/**
+	 * Write values of the given width to a file (with a few trailing bytes), sort it
+	 * and compare the result to an in-memory sort.
+	 * @param range values are drawn from [0, range)
+	 * @param segmentBits the number of values per mapped segment, as a power of two
+	 */
+	void check(int width, int count, int range, int segmentBits) throws IOException {
+		int[] values = new int[count];
+		for (int i = 0; i < count; ++i) {
+			values[i] = rnd.nextInt(range);
+		}
+		byte[] trailing = width == 3 ? new byte[] { 7, 9 } : new byte[0];
+
+		File temp = File.createTempFile("mappedRadixSort", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		file.write(encode(values, width, trailing));
+		if (width == 1) {
+			MappedRadixSort.sortBytes(file, segmentBits);
+		} else {
+			MappedRadixSort.sortTriBytes(file, segmentBits);
+		}
+
+		Arrays.sort(values);
+		byte[] expected = encode(values, width, trailing);
+		byte[] actual = new byte[expected.length];
+		file.seek(0);
+		file.readFully(actual);
+		assertArrayEquals("width " + width + ", count " + count + ", range " + range, expected, actual);
+		file.close();
+		temp.delete();
+	}
+
+	byte[] encode(int[] values, int width, byte[] trailing) {
+		byte[] bytes = new byte[values.length * width + trailing.length];
+		for (int i = 0; i < values.length; ++i) {
+			for (int j = 0; j < width; ++j) {
+				bytes[i * width + j] = (byte) (values[i] >>> (8 * (width - 1 - j)));
+			}
+		}
+		System.arraycopy(trailing, 0, bytes, values.length * width, trailing.length);
+		return bytes;
+	}
+
+	@Test
+	public void testSortBytes() throws IOException {
+		check(1, 1000, 256, 28);
+		check(1, 1000000, 256, 28);
+		check(1, 300000, 3, 28);
+	}
+
+	@Test
+	public void testSortTriBytes() throws IOException {
+		check(3, 1000, 1 << 24, 28);
+		check(3, 1000000, 1 << 24, 28);
+	}
+
+	@Test
+	public void testManyEqualValues() throws IOException {
+		// few distinct values make large buckets at every level
+		check(3, 500000, 5, 28);
+		check(3, 500000, 1 << 10, 28);
+		check(3, 500000, 1 << 17, 28);
+	}
+
+	@Test
+	public void testSegments() throws IOException {
+		// tiny segments make buckets and fork/join regions span several mappings
+		check(1, 200000, 256, 10);
+		check(3, 200000, 1 << 24, 10);
+		check(3, 200000, 1 << 12, 7);
+	}
+
+	@Test
+	public void testTinyFiles() throws IOException {
+		check(1, 0, 256, 28);
+		check(1, 1, 256, 28);
+		check(3, 0, 1 << 24, 28);
+		check(3, 1, 1 << 24, 28);
+		check(3, 2, 1 << 24, 28);
+	}
+
+	@Test
+	public void testRandomAccess() throws IOException {
+		File temp = File.createTempFile("mappedRadixSort", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		file.write(new byte[] { 3, 1, 2, 0, 0, 5, 1, 0, 0 });
+		RandomAccess.parallelSortTriBytes(file);
+		byte[] actual = new byte[9];
+		file.seek(0);
+		file.readFully(actual);
+		assertArrayEquals(new byte[] { 0, 0, 5, 1, 0, 0, 3, 1, 2 }, actual);
+
+		RandomAccess.parallelSortBytes(file);
+		file.seek(0);
+		file.readFully(actual);
+		assertArrayEquals(new byte[] { 0, 0, 0, 0, 1, 1, 2, 3, 5 }, actual);
+		file.close();
+		temp.delete();
+	}
+}
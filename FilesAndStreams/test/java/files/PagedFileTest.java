@@ -0,0 +1,92 @@
+package files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PagedFileTest {
+	public final static int PAGE_SIZE = 256;
+	public final static int LENGTH = 100 * PAGE_SIZE + 17; // with a short last page
+
+	Random rnd;
+
+	@Before
+	public void setup() {
+		rnd = new Random(23);
+	}
+
+	@Test
+	public void testRandomAccess() throws IOException {
+		File temp = File.createTempFile("paged", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		byte[] expected = new byte[LENGTH];
+		rnd.nextBytes(expected);
+		file.write(expected);
+
+		// room for only 8 pages, so pages are evicted and written back all the time
+		PagedFile paged = new PagedFile(file, PAGE_SIZE, 8 * PAGE_SIZE);
+		assertEquals(LENGTH, paged.length());
+		for (int i = 0; i < 100000; ++i) {
+			int pos = rnd.nextInt(LENGTH - 2);
+			switch (rnd.nextInt(4)) {
+			case 0:
+				assertEquals(expected[pos] & 0xff, paged.getByte(pos));
+				break;
+			case 1:
+				int tri = ((expected[pos] & 0xff) << 16) | ((expected[pos + 1] & 0xff) << 8) | (expected[pos + 2] & 0xff);
+				assertEquals(tri, paged.getTriByte(pos));
+				break;
+			case 2:
+				expected[pos] = (byte) rnd.nextInt();
+				paged.put(pos, expected[pos]);
+				break;
+			default:
+				int value = rnd.nextInt(1 << 24);
+				expected[pos] = (byte) (value >>> 16);
+				expected[pos + 1] = (byte) (value >>> 8);
+				expected[pos + 2] = (byte) value;
+				paged.putTriByte(pos, value);
+			}
+		}
+		paged.close();
+
+		byte[] actual = new byte[LENGTH];
+		file.seek(0);
+		file.readFully(actual);
+		assertArrayEquals(expected, actual);
+		file.close();
+		temp.delete();
+	}
+
+	@Test
+	public void testSequentialScanReadsEachPageOnce() throws IOException {
+		File temp = File.createTempFile("paged", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		file.setLength(LENGTH);
+
+		PagedFile paged = new PagedFile(file, PAGE_SIZE, 2 * PAGE_SIZE);
+		for (long pos = 0; pos + 3 <= LENGTH; pos += 3) {
+			paged.getTriByte(pos);
+		}
+		assertEquals((LENGTH + PAGE_SIZE - 1) / PAGE_SIZE, paged.pageReads());
+		assertEquals(0, paged.pageWrites());
+
+		// writes are only made when a changed page is evicted or flushed
+		for (long pos = 0; pos < LENGTH; ++pos) {
+			paged.put(pos, 1);
+		}
+		assertTrue(paged.pageWrites() <= (LENGTH + PAGE_SIZE - 1) / PAGE_SIZE);
+		paged.close();
+		assertEquals((LENGTH + PAGE_SIZE - 1) / PAGE_SIZE, paged.pageWrites());
+		file.close();
+		temp.delete();
+	}
+}
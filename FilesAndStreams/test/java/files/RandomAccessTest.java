@@ -76,6 +76,36 @@ public class RandomAccessTest {
 		}
 	}
 
+	@Test
+	public void testSortBytesLarge() throws IOException {
+		// several buffers' worth, with a partial last buffer
+		File temp = File.createTempFile("sortBytes", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+		byte[] origBytes = new byte[(5 << 20) + 12345];
+		rnd.nextBytes(origBytes);
+		file.write(origBytes);
+		RandomAccess.sortBytes(file);
+
+		int[] counts = new int[256];
+		for (byte b : origBytes) {
+			counts[b & 0xff]++;
+		}
+		byte[] sortedBytes = new byte[origBytes.length];
+		int pos = 0;
+		for (int value = 0; value < 256; ++value) {
+			java.util.Arrays.fill(sortedBytes, pos, pos + counts[value], (byte) value);
+			pos += counts[value];
+		}
+
+		file.seek(0);
+		byte[] actualBytes = new byte[origBytes.length];
+		file.readFully(actualBytes);
+		assertArrayEquals(sortedBytes, actualBytes);
+		file.close();
+		temp.delete();
+	}
+
 
 	@Test
 	public void testSortTriBytes() throws IOException {
@@ -151,4 +181,59 @@ public class RandomAccessTest {
 
 		}
 	}
+
+	@Test
+	public void testSortTriBytesLarge() throws IOException {
+		// enough values for radix passes on two levels, some of them in large buckets of a few top bytes
+		File temp = File.createTempFile("sortTriBytes", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+		int[] values = new int[600000];
+		for (int j = 0; j < values.length; ++j) {
+			values[j] = j % 2 == 0 ? rnd.nextInt(1 << 24) : (rnd.nextInt(3) << 16) | rnd.nextInt(1 << 16);
+		}
+		byte[] origBytes = new byte[3 * values.length + 2];
+		for (int j = 0; j < values.length; ++j) {
+			origBytes[3*j] = (byte) (values[j] >>> 16);
+			origBytes[3*j+1] = (byte) (values[j] >>> 8);
+			origBytes[3*j+2] = (byte) values[j];
+		}
+		origBytes[origBytes.length - 2] = 7;
+		origBytes[origBytes.length - 1] = 9;
+		file.write(origBytes);
+		RandomAccess.sortTriBytes(file);
+
+		java.util.Arrays.sort(values);
+		byte[] sortedBytes = origBytes.clone();
+		for (int j = 0; j < values.length; ++j) {
+			sortedBytes[3*j] = (byte) (values[j] >>> 16);
+			sortedBytes[3*j+1] = (byte) (values[j] >>> 8);
+			sortedBytes[3*j+2] = (byte) values[j];
+		}
+		file.seek(0);
+		byte[] actualBytes = new byte[origBytes.length];
+		file.readFully(actualBytes);
+		assertArrayEquals(sortedBytes, actualBytes);
+		file.close();
+		temp.delete();
+	}
+
+	@Test
+	public void testSortRecords() throws IOException {
+		File temp = File.createTempFile("sortRecords", "byt");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+		// 4-byte records sorted by their first 2 bytes; equal keys keep their order
+		byte[] origBytes = { 3, 0, 1, 1, 0, 9, 2, 2, 3, 0, 0, 0, 0, 9, 1, 1, 5 };
+		file.write(origBytes);
+		RandomAccess.sortRecords(file, 4, 2);
+
+		file.seek(0);
+		byte[] sortedBytes = { 0, 9, 2, 2, 0, 9, 1, 1, 3, 0, 1, 1, 3, 0, 0, 0, 5 };
+		byte[] actualBytes = new byte[sortedBytes.length];
+		file.readFully(actualBytes);
+		assertArrayEquals(sortedBytes, actualBytes);
+		file.close();
+		temp.delete();
+	}
 }